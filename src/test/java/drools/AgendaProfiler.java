@@ -0,0 +1,314 @@
+package drools;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.kie.api.definition.rule.Rule;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.kie.api.event.rule.BeforeMatchFiredEvent;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+import org.kie.api.event.rule.MatchCancelledEvent;
+import org.kie.api.event.rule.MatchCreatedEvent;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.Match;
+
+/**
+ * Per rule statistics of a session: matches created, cancelled and fired, facts inserted, updated and deleted by its
+ * consequence, time spent in its consequence and time its matches waited on the agenda.
+ *
+ * Counts are exact. Times are measured on one match out of <code>samplingRate</code> of each rule only, and
+ * extrapolated, so that the profiler can stay attached: a sampled match costs two <code>System.nanoTime()</code> calls
+ * per measure, the other ones a lookup of the rule instance and a few counter increments. Sampling by rule keeps rules
+ * firing in a repeating cycle from being always, or never, sampled. Rule names are only built for the reports. A
+ * profiler can be attached to several sessions.
+ *
+ * The creation times of sampled matches are kept until they fire or are cancelled, at most
+ * {@link #MAX_PENDING_SAMPLES} of them: {@link #detach(KieSession)} the profiler before disposing the session to drop
+ * the ones left on its agenda.
+ */
+public class AgendaProfiler extends DefaultAgendaEventListener implements RuleRuntimeEventListener {
+  /** sampled matches waiting on the agenda above which new matches are not timed */
+  public static final int MAX_PENDING_SAMPLES = 10000;
+
+  private final int samplingRate;
+  /** by rule instance, several instances of a rule rebuilt by an upgrade sharing their statistics */
+  private final Map<Rule, RuleStats> rules = Collections.synchronizedMap(new IdentityHashMap<>());
+  /** by package and name, to share the statistics of a rebuilt rule, only looked up for a new rule instance */
+  private final Map<String, RuleStats> byName = new ConcurrentHashMap<>();
+  /** creation time of the sampled matches still on the agenda */
+  private final Map<Match, Long> created = Collections.synchronizedMap(new IdentityHashMap<>());
+  /** start time of the sampled consequences being run, one per session at most */
+  private final Map<Match, Long> firing = Collections.synchronizedMap(new IdentityHashMap<>());
+
+  /**
+   * @param samplingRate 1 to time every match
+   */
+  public AgendaProfiler(final int samplingRate) {
+    if (samplingRate < 1) {
+      throw new IllegalArgumentException("Expecting a positive sampling rate, got " + samplingRate);
+    }
+    this.samplingRate = samplingRate;
+  }
+
+  public AgendaProfiler attach(final KieSession ksession) {
+    ksession.addEventListener((AgendaEventListener) this);
+    ksession.addEventListener((RuleRuntimeEventListener) this);
+    return this;
+  }
+
+  /**
+   * Removes the profiler from the session, and drops the creation times of the matches left on its agenda.
+   */
+  public void detach(final KieSession ksession) {
+    ksession.removeEventListener((AgendaEventListener) this);
+    ksession.removeEventListener((RuleRuntimeEventListener) this);
+    this.created.clear();
+  }
+
+  private RuleStats stats(final Rule rule) {
+    final RuleStats stats = this.rules.get(rule);
+    if (stats != null) { return stats; }
+    return this.rules.computeIfAbsent(rule, r -> this.byName.computeIfAbsent(AgendaProfiler.key(r.getPackageName(), r.getName()), k -> new RuleStats(r)));
+  }
+
+  private static String key(final String packageName, final String ruleName) {
+    return packageName + ";" + ruleName;
+  }
+
+  @Override
+  public void matchCreated(final MatchCreatedEvent event) {
+    final RuleStats stats = this.stats(event.getMatch().getRule());
+    stats.created.increment();
+    if (stats.createdSequence.getAndIncrement() % this.samplingRate == 0 && this.created.size() < AgendaProfiler.MAX_PENDING_SAMPLES) {
+      this.created.put(event.getMatch(), System.nanoTime());
+    }
+  }
+
+  @Override
+  public void matchCancelled(final MatchCancelledEvent event) {
+    this.stats(event.getMatch().getRule()).cancelled.increment();
+    this.created.remove(event.getMatch());
+  }
+
+  @Override
+  public void beforeMatchFired(final BeforeMatchFiredEvent event) {
+    final Match match = event.getMatch();
+    final RuleStats stats = this.stats(match.getRule());
+    final Long createdAt = this.created.remove(match);
+    final boolean sampled = stats.firedSequence.getAndIncrement() % this.samplingRate == 0;
+    if (createdAt == null && !sampled) { return; }
+
+    final long now = System.nanoTime();
+    if (createdAt != null) {
+      stats.recordWait(now - createdAt);
+    }
+    if (sampled) {
+      this.firing.put(match, now);
+    }
+  }
+
+  @Override
+  public void afterMatchFired(final AfterMatchFiredEvent event) {
+    final RuleStats stats = this.stats(event.getMatch().getRule());
+    stats.fired.increment();
+    final Long start = this.firing.remove(event.getMatch());
+    if (start != null) {
+      stats.recordConsequence(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void objectInserted(final ObjectInsertedEvent event) {
+    if (event.getRule() != null) {
+      this.stats(event.getRule()).inserted.increment();
+    }
+  }
+
+  @Override
+  public void objectUpdated(final ObjectUpdatedEvent event) {
+    if (event.getRule() != null) {
+      this.stats(event.getRule()).updated.increment();
+    }
+  }
+
+  @Override
+  public void objectDeleted(final ObjectDeletedEvent event) {
+    if (event.getRule() != null) {
+      this.stats(event.getRule()).deleted.increment();
+    }
+  }
+
+  public RuleStats getStats(final String packageName, final String ruleName) {
+    return this.byName.get(AgendaProfiler.key(packageName, ruleName));
+  }
+
+  /**
+   * @return all the rules, the most expensive consequences first
+   */
+  public List<RuleStats> getRules() {
+    final List<RuleStats> rules = new ArrayList<>(this.byName.values());
+    rules.sort((a, b) -> Long.compare(b.getConsequenceTime(TimeUnit.NANOSECONDS), a.getConsequenceTime(TimeUnit.NANOSECONDS)));
+    return rules;
+  }
+
+  public void reset() {
+    this.rules.clear();
+    this.byName.clear();
+    this.created.clear();
+  }
+
+  /**
+   * @return sampled matches whose creation time is kept until they fire or are cancelled
+   */
+  int getPendingSampleCount() {
+    return this.created.size();
+  }
+
+  /**
+   * @return one line per rule, the most expensive consequences first
+   */
+  public String report() {
+    final StringBuilder report = new StringBuilder(String.format("%-40s %8s %8s %8s %8s %12s %12s %12s%n", "rule", "created", "cancel", "fired", "inserted",
+        "total ms", "mean us", "wait us"));
+    for (final RuleStats stats : this.getRules()) {
+      report.append(String.format("%-40s %8d %8d %8d %8d %12.3f %12.3f %12.3f%n", stats.getName(), stats.getCreatedCount(), stats.getCancelledCount(),
+          stats.getFiredCount(), stats.getInsertedCount(), stats.getConsequenceTime(TimeUnit.MICROSECONDS) / 1000.0,
+          stats.getMeanConsequenceNanos() / 1000.0, stats.getMeanWaitNanos() / 1000.0));
+    }
+    return report.toString();
+  }
+
+  /**
+   * Writes the estimated consequence time of every rule, in microseconds, in the collapsed stack format of
+   * <code>flamegraph.pl</code> and similar tools: <code>fireAllRules;package;rule time</code>. The separators
+   * <code>;</code> and white spaces in rule names are replaced by <code>_</code>.
+   */
+  public void writeCollapsedStacks(final Writer writer) throws IOException {
+    for (final RuleStats stats : this.getRules()) {
+      final long micros = stats.getConsequenceTime(TimeUnit.MICROSECONDS);
+      if (micros > 0) {
+        writer.write("fireAllRules;" + AgendaProfiler.frame(stats.rule.getPackageName()) + ";" + AgendaProfiler.frame(stats.rule.getName()) + " " + micros + "\n");
+      }
+    }
+    writer.flush();
+  }
+
+  private static String frame(final String name) {
+    return name.replaceAll("[;\\s]", "_");
+  }
+
+  public class RuleStats {
+    private final Rule rule;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder consequenceSamples = new LongAdder();
+    private final LongAdder consequenceNanos = new LongAdder();
+    private final LongAdder waitSamples = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxConsequenceNanos = new AtomicLong();
+    /** numbers the created and fired matches of the rule, for the sampling */
+    private final AtomicLong createdSequence = new AtomicLong();
+    private final AtomicLong firedSequence = new AtomicLong();
+
+    RuleStats(final Rule rule) {
+      this.rule = rule;
+    }
+
+    void recordConsequence(final long nanos) {
+      this.consequenceSamples.increment();
+      this.consequenceNanos.add(nanos);
+      this.maxConsequenceNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    void recordWait(final long nanos) {
+      this.waitSamples.increment();
+      this.waitNanos.add(nanos);
+    }
+
+    /**
+     * @return package and rule name
+     */
+    public String getName() {
+      return this.rule.getPackageName() + "." + this.rule.getName();
+    }
+
+    public long getCreatedCount() {
+      return this.created.sum();
+    }
+
+    public long getCancelledCount() {
+      return this.cancelled.sum();
+    }
+
+    public long getFiredCount() {
+      return this.fired.sum();
+    }
+
+    public long getInsertedCount() {
+      return this.inserted.sum();
+    }
+
+    public long getUpdatedCount() {
+      return this.updated.sum();
+    }
+
+    public long getDeletedCount() {
+      return this.deleted.sum();
+    }
+
+    /**
+     * @return fired matches whose consequence was timed
+     */
+    public long getSampledCount() {
+      return this.consequenceSamples.sum();
+    }
+
+    public double getMeanConsequenceNanos() {
+      final long samples = this.consequenceSamples.sum();
+      return samples == 0 ? 0 : (double) this.consequenceNanos.sum() / samples;
+    }
+
+    public long getMaxConsequence(final TimeUnit unit) {
+      return unit.convert(this.maxConsequenceNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return time spent in the consequence of the rule, extrapolated from the sampled matches to all the fired ones
+     */
+    public long getConsequenceTime(final TimeUnit unit) {
+      return unit.convert((long) (this.getMeanConsequenceNanos() * this.fired.sum()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return mean time from the creation of a match to its firing
+     */
+    public double getMeanWaitNanos() {
+      final long samples = this.waitSamples.sum();
+      return samples == 0 ? 0 : (double) this.waitNanos.sum() / samples;
+    }
+
+    @Override
+    public String toString() {
+      return this.getName() + "[created=" + this.getCreatedCount() + ", cancelled=" + this.getCancelledCount() + ", fired=" + this.getFiredCount() + ", time="
+          + this.getConsequenceTime(TimeUnit.MICROSECONDS) + "us]";
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package drools;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AgendaProfilerTest extends BaseModelTest {
+  static final Logger LOG = LoggerFactory.getLogger(AgendaProfilerTest.class);
+
+  private static final String DRL = "package org.drools.profiler\n" //
+      + " rule R1 when\n $s : String( this.startsWith(\"H\") )\n then\n insert( new StringBuilder($s) );\n end\n" //
+      + " rule Slow when\n $s : String( this == \"Slow\" )\n then\n java.util.concurrent.locks.LockSupport.parkNanos(20000000L);\n end\n" //
+      + " rule Cleaner salience 10 when\n $s : String( this == \"X\" )\n then\n delete( $s );\n end\n" //
+      + " rule Cancelled salience -10 when\n $s : String( this == \"X\" )\n then\n end\n" //
+      + " rule \"Semi;colon rule\" salience 20 when\n $s : String( this == \"X\" )\n then\n java.util.concurrent.locks.LockSupport.parkNanos(1000000L);\n end\n";
+
+  /** two rules firing in turn, from 0 to 20 */
+  private static final String PING_PONG_DRL = "package org.drools.profiler\n" //
+      + " rule Ping when\n $i : Integer( intValue < 20, intValue % 2 == 0 )\n then\n delete( $i );\n insert( $i + 1 );\n end\n" //
+      + " rule Pong when\n $i : Integer( intValue < 20, intValue % 2 == 1 )\n then\n delete( $i );\n insert( $i + 1 );\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public AgendaProfilerTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void rulesAreProfiled() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(AgendaProfilerTest.GROUP_ID, "test-profiler", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, AgendaProfilerTest.DRL);
+
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+    final AgendaProfiler profiler = new AgendaProfiler(1).attach(ksession);
+    for (int i = 0; i < 10; i++) {
+      ksession.insert("Hi " + i);
+    }
+    ksession.insert("X");
+    ksession.insert("Slow");
+    Assert.assertEquals(13, ksession.fireAllRules());
+
+    final AgendaProfiler.RuleStats r1 = profiler.getStats("org.drools.profiler", "R1");
+    Assert.assertEquals(10, r1.getCreatedCount());
+    Assert.assertEquals(10, r1.getFiredCount());
+    Assert.assertEquals(10, r1.getInsertedCount());
+    Assert.assertEquals(10, r1.getSampledCount());
+    Assert.assertTrue(r1.getMeanWaitNanos() > 0);
+
+    final AgendaProfiler.RuleStats cleaner = profiler.getStats("org.drools.profiler", "Cleaner");
+    Assert.assertEquals(1, cleaner.getFiredCount());
+    Assert.assertEquals(1, cleaner.getDeletedCount());
+    final AgendaProfiler.RuleStats cancelled = profiler.getStats("org.drools.profiler", "Cancelled");
+    Assert.assertEquals(1, cancelled.getCreatedCount());
+    Assert.assertEquals(1, cancelled.getCancelledCount());
+    Assert.assertEquals(0, cancelled.getFiredCount());
+
+    // the most expensive rule comes first
+    final AgendaProfiler.RuleStats slow = profiler.getRules().get(0);
+    Assert.assertEquals("org.drools.profiler.Slow", slow.getName());
+    Assert.assertTrue(slow.getConsequenceTime(TimeUnit.MILLISECONDS) >= 20);
+
+    final StringWriter stacks = new StringWriter();
+    profiler.writeCollapsedStacks(stacks);
+    Assert.assertTrue(stacks.toString(), stacks.toString().startsWith("fireAllRules;org.drools.profiler;Slow "));
+    Assert.assertTrue(stacks.toString(), stacks.toString().contains("fireAllRules;org.drools.profiler;Semi_colon_rule "));
+    for (final String line : stacks.toString().split("\n")) {
+      Assert.assertTrue(line, line.matches("fireAllRules;org\\.drools\\.profiler;\\w+ \\d+"));
+    }
+    AgendaProfilerTest.LOG.info("\n" + profiler.report());
+
+    ksession.dispose();
+    kc.dispose();
+  }
+
+  @Test
+  public void samplingKeepsExactCounts() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(AgendaProfilerTest.GROUP_ID, "test-profiler-sampling", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, AgendaProfilerTest.DRL);
+
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+    final AgendaProfiler profiler = new AgendaProfiler(10).attach(ksession);
+    for (int i = 0; i < 100; i++) {
+      ksession.insert("Hi " + i);
+    }
+    Assert.assertEquals(100, ksession.fireAllRules());
+
+    final AgendaProfiler.RuleStats r1 = profiler.getStats("org.drools.profiler", "R1");
+    Assert.assertEquals(100, r1.getFiredCount());
+    Assert.assertEquals(100, r1.getInsertedCount());
+    Assert.assertEquals(10, r1.getSampledCount());
+    Assert.assertTrue(r1.getMeanWaitNanos() > 0);
+
+    // the creation time of a match that did not fire is dropped on detach
+    ksession.insert("Hi again");
+    Assert.assertEquals(0, ksession.fireAllRules(match -> false));
+    Assert.assertEquals(1, profiler.getPendingSampleCount());
+    profiler.detach(ksession);
+    Assert.assertEquals(0, profiler.getPendingSampleCount());
+    ksession.insert("Hello");
+    ksession.fireAllRules();
+    Assert.assertEquals(100, r1.getFiredCount());
+
+    ksession.dispose();
+    kc.dispose();
+  }
+
+  @Test
+  public void rulesFiringInTurnAreBothSampled() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(AgendaProfilerTest.GROUP_ID, "test-profiler-cycle", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, AgendaProfilerTest.PING_PONG_DRL);
+
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+    final AgendaProfiler profiler = new AgendaProfiler(2).attach(ksession);
+    ksession.insert(0);
+    Assert.assertEquals(20, ksession.fireAllRules());
+
+    // one match out of two overall would always be a Ping
+    Assert.assertEquals(5, profiler.getStats("org.drools.profiler", "Ping").getSampledCount());
+    Assert.assertEquals(5, profiler.getStats("org.drools.profiler", "Pong").getSampledCount());
+
+    ksession.dispose();
+    kc.dispose();
+  }
+}
@@ -0,0 +1,122 @@
+package drools;
+
+import org.drools.ancompiler.CompiledNetwork;
+import org.drools.core.RuleBaseConfiguration;
+import org.drools.core.impl.InternalKnowledgeBase;
+import org.drools.core.reteoo.CompositeObjectSinkAdapter;
+import org.drools.core.reteoo.ObjectSinkPropagator;
+import org.drools.core.reteoo.ObjectTypeNode;
+import org.drools.core.util.ObjectHashMap;
+import org.kie.api.KieBase;
+import org.kie.api.KieBaseConfiguration;
+import org.kie.api.KieServices;
+import org.kie.api.runtime.KieContainer;
+import org.kie.internal.conf.AlphaRangeIndexThresholdOption;
+import org.kie.internal.conf.AlphaThresholdOption;
+
+/**
+ * Alpha node indexing of a KieBase, chosen per KieBase of a container.
+ *
+ * Drools already dispatches an inserted fact through a hash of the alpha nodes testing the same field for equality, as
+ * <code>Message( value == "Hello World" )</code>, once there are <code>hashingThreshold</code> of them below an object
+ * type node, and through a range index for <code>&lt;</code> and <code>&gt;</code> constraints once there are
+ * <code>rangeIndexThreshold</code> of them. The thresholds are options of the KieBase, not of the kmodule.
+ *
+ * {@link #newKieBase} passes them in a configuration of the KieBase, which the container creates but does not keep:
+ * <code>updateToVersion</code> leaves it on the former release.
+ *
+ * {@link #getKieBase} gets the KieBase the container keeps and updates, with the same thresholds. The container builds it
+ * with a configuration of its own, so the thresholds are set as the system properties drools reads, for the time the
+ * container creates the KieBase only. Calls of {@link #getKieBase} are serialized, but system properties are global:
+ * any other KieBase created by another thread at the same time picks the thresholds up too. Create the KieBases of the
+ * application up front, from a single thread, or use {@link #newKieBase}.
+ *
+ * Other constraints, as <code>value.startsWith("H")</code>, are not indexed and stay evaluated one by one on every
+ * insert, with or without the alpha network compiler.
+ */
+public class AlphaIndexing {
+  /** threshold turning an index off */
+  public static final int DISABLED = Integer.MAX_VALUE;
+  /** the drools defaults */
+  public static final AlphaIndexing DEFAULT = new AlphaIndexing(3, AlphaRangeIndexThresholdOption.DEFAULT_VALUE);
+
+  private final int hashingThreshold;
+  private final int rangeIndexThreshold;
+
+  /**
+   * @param hashingThreshold equality constraints on a field from which they are hashed, {@link #DISABLED} to test them
+   *          one by one
+   * @param rangeIndexThreshold range constraints on a field from which they are indexed
+   */
+  public AlphaIndexing(final int hashingThreshold, final int rangeIndexThreshold) {
+    if (hashingThreshold < 1 || rangeIndexThreshold < 1) {
+      throw new IllegalArgumentException("Expecting positive thresholds, got " + hashingThreshold + " and " + rangeIndexThreshold);
+    }
+    this.hashingThreshold = hashingThreshold;
+    this.rangeIndexThreshold = rangeIndexThreshold;
+  }
+
+  /**
+   * @return a new KieBase of the container, created with the thresholds, that the container does not update
+   */
+  public KieBase newKieBase(final KieServices ks, final KieContainer kc, final String kbaseName) {
+    final KieBaseConfiguration conf = ks.newKieBaseConfiguration(null, kc.getClassLoader());
+    conf.setOption(AlphaThresholdOption.get(this.hashingThreshold));
+    conf.setOption(AlphaRangeIndexThresholdOption.get(this.rangeIndexThreshold));
+    return kc.newKieBase(kbaseName, conf);
+  }
+
+  /**
+   * @return the KieBase of the container, created with the thresholds if the container did not create it yet
+   * @throws IllegalStateException if the container already created it with other thresholds
+   */
+  public KieBase getKieBase(final KieContainer kc, final String kbaseName) {
+    final KieBase kbase;
+    synchronized (AlphaIndexing.class) {
+      final String hashing = System.setProperty(AlphaThresholdOption.PROPERTY_NAME, Integer.toString(this.hashingThreshold));
+      final String rangeIndex = System.setProperty(AlphaRangeIndexThresholdOption.PROPERTY_NAME, Integer.toString(this.rangeIndexThreshold));
+      try {
+        kbase = kc.getKieBase(kbaseName);
+      } finally {
+        AlphaIndexing.restore(AlphaThresholdOption.PROPERTY_NAME, hashing);
+        AlphaIndexing.restore(AlphaRangeIndexThresholdOption.PROPERTY_NAME, rangeIndex);
+      }
+    }
+
+    final RuleBaseConfiguration conf = ((InternalKnowledgeBase) kbase).getConfiguration();
+    if (conf.getAlphaNodeHashingThreshold() != this.hashingThreshold || conf.getAlphaNodeRangeIndexThreshold() != this.rangeIndexThreshold) {
+      throw new IllegalStateException("KieBase " + kbaseName + " of " + kc.getReleaseId() + " already created with hashing threshold "
+          + conf.getAlphaNodeHashingThreshold() + " and range index threshold " + conf.getAlphaNodeRangeIndexThreshold() + ", expecting " + this);
+    }
+    return kbase;
+  }
+
+  private static void restore(final String property, final String value) {
+    if (value == null) {
+      System.clearProperty(property);
+    } else {
+      System.setProperty(property, value);
+    }
+  }
+
+  /**
+   * @return the alpha nodes below the object type node of <code>clazz</code> reached through a hash lookup
+   */
+  public static int getHashedNodeCount(final KieBase kbase, final Class<?> clazz) {
+    final ObjectTypeNode otn = new ReteInspector(kbase).getObjectTypeNode(clazz);
+    if (otn == null) { return 0; }
+    ObjectSinkPropagator propagator = ReteInspector.unwrap(otn.getObjectSinkPropagator());
+    if (propagator instanceof CompiledNetwork) {
+      propagator = ((CompiledNetwork) propagator).getOriginalSinkPropagator();
+    }
+    if (!(propagator instanceof CompositeObjectSinkAdapter)) { return 0; }
+    final ObjectHashMap hashed = ((CompositeObjectSinkAdapter) propagator).getHashedSinkMap();
+    return hashed == null ? 0 : hashed.size();
+  }
+
+  @Override
+  public String toString() {
+    return "AlphaIndexing[hashing=" + (this.hashingThreshold == AlphaIndexing.DISABLED ? "off" : this.hashingThreshold) + ", rangeIndex="
+        + (this.rangeIndexThreshold == AlphaIndexing.DISABLED ? "off" : this.rangeIndexThreshold) + "]";
+  }
+}
@@ -0,0 +1,101 @@
+package drools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.FactHandle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import drools.BaseModelTest.RUN_TYPE;
+
+/**
+ * Cost of an insert, fired and deleted, against the number of <code>Message( value == "..." )</code> rules, with the
+ * alpha nodes hashed by drools or tested one by one, see {@link AlphaIndexing}.
+ *
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=AlphaIndexingBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AlphaIndexingBenchmark {
+  static final Logger LOG = LoggerFactory.getLogger(AlphaIndexingBenchmark.class);
+
+  private static final int BATCH = 100;
+
+  @State(Scope.Benchmark)
+  public static class Model {
+    @Param({ "PATTERN_DSL", "STANDARD_FROM_DRL", "STANDARD_WITH_ALPHA_NETWORK", "PATTERN_WITH_ALPHA_NETWORK" })
+    RUN_TYPE runType;
+
+    @Param({ "10", "100", "1000" })
+    int ruleCount;
+
+    @Param({ "true", "false" })
+    boolean hashing;
+
+    KieContainer kc;
+    KieSession ksession;
+    Message[] messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      final KieServices ks = KieServices.Factory.get();
+      final ReleaseId releaseId = ks.newReleaseId("me.nbuchon", "bench-alpha-" + this.runType + "-" + this.ruleCount, "1.0.0");
+      new BenchmarkDeployer(this.runType).deploy(ks, EventProcessingOption.CLOUD, releaseId, AlphaIndexingTest.rules(this.ruleCount));
+      this.kc = ks.newKieContainer(releaseId);
+      final AlphaIndexing indexing = this.hashing ? AlphaIndexing.DEFAULT : new AlphaIndexing(AlphaIndexing.DISABLED, AlphaIndexing.DISABLED);
+      final KieBase kbase = indexing.newKieBase(ks, this.kc, "KBase");
+      AlphaIndexingBenchmark.LOG.info(this.runType + " " + this.ruleCount + " rules, " + indexing + ": "
+          + AlphaIndexing.getHashedNodeCount(kbase, Message.class) + " hashed alpha nodes");
+      this.ksession = kbase.newKieSession();
+
+      // half of the messages match one rule
+      this.messages = new Message[AlphaIndexingBenchmark.BATCH];
+      for (int i = 0; i < this.messages.length; i++) {
+        this.messages[i] = new Message((i % 2 == 0 ? "Hello " : "Hi ") + i * 7 % this.ruleCount);
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      this.ksession.dispose();
+      this.kc.dispose();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(AlphaIndexingBenchmark.BATCH)
+  public int insertFireDelete(final Model model) {
+    final FactHandle[] handles = new FactHandle[model.messages.length];
+    for (int i = 0; i < handles.length; i++) {
+      handles[i] = model.ksession.insert(model.messages[i]);
+    }
+    final int fired = model.ksession.fireAllRules();
+    for (final FactHandle handle : handles) {
+      model.ksession.delete(handle);
+    }
+    return fired;
+  }
+}
@@ -0,0 +1,120 @@
+package drools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.internal.conf.AlphaThresholdOption;
+
+public class AlphaIndexingTest extends BaseModelTest {
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public AlphaIndexingTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  static String rules(final int count) {
+    final StringBuilder drl = new StringBuilder("package org.drools.alpha\nimport " + Message.class.getCanonicalName() + ";\n");
+    for (int i = 0; i < count; i++) {
+      drl.append("rule R").append(i).append(" when\n $m : Message( value == \"Hello ").append(i).append("\" )\nthen\nend\n");
+    }
+    drl.append("rule Prefix when\n $m : Message( value.startsWith(\"Hello 1\") )\nthen\nend\n");
+    return drl.toString();
+  }
+
+  private static int fire(final KieBase kbase, final String... values) {
+    final KieSession ksession = kbase.newKieSession();
+    try {
+      for (final String value : values) {
+        ksession.insert(new Message(value));
+      }
+      return ksession.fireAllRules();
+    } finally {
+      ksession.dispose();
+    }
+  }
+
+  @Test
+  public void hashingIsChosenPerKieBase() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(AlphaIndexingTest.GROUP_ID, "test-alpha-indexing", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, AlphaIndexingTest.rules(20));
+
+    final KieBase hashed = ks.newKieContainer(releaseId).getKieBase("KBase");
+    final KieBase linear = new AlphaIndexing(AlphaIndexing.DISABLED, AlphaIndexing.DISABLED).getKieBase(ks.newKieContainer(releaseId), "KBase");
+    Assert.assertEquals(20, AlphaIndexing.getHashedNodeCount(hashed, Message.class));
+    Assert.assertEquals(0, AlphaIndexing.getHashedNodeCount(linear, Message.class));
+
+    // same matches either way: R15 and Prefix, then R3 only
+    Assert.assertEquals(2, AlphaIndexingTest.fire(hashed, "Hello 15"));
+    Assert.assertEquals(2, AlphaIndexingTest.fire(linear, "Hello 15"));
+    Assert.assertEquals(1, AlphaIndexingTest.fire(hashed, "Hello 3", "Hi"));
+    Assert.assertEquals(1, AlphaIndexingTest.fire(linear, "Hello 3", "Hi"));
+  }
+
+  @Test
+  public void lowerThresholdHashesFewRules() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(AlphaIndexingTest.GROUP_ID, "test-alpha-indexing-few", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, AlphaIndexingTest.rules(2));
+
+    Assert.assertEquals("below the default threshold", 0, AlphaIndexing.getHashedNodeCount(ks.newKieContainer(releaseId).getKieBase(), Message.class));
+    final KieBase hashed = new AlphaIndexing(2, AlphaIndexing.DISABLED).getKieBase(ks.newKieContainer(releaseId), "KBase");
+    Assert.assertEquals(2, AlphaIndexing.getHashedNodeCount(hashed, Message.class));
+    Assert.assertEquals(1, AlphaIndexingTest.fire(hashed, "Hello 0"));
+  }
+
+  @Test
+  public void newKieBaseIsConfiguredWithoutSystemProperties() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(AlphaIndexingTest.GROUP_ID, "test-alpha-indexing-conf", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, AlphaIndexingTest.rules(2));
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    final KieBase hashed = new AlphaIndexing(2, AlphaIndexing.DISABLED).newKieBase(ks, kc, "KBase");
+    Assert.assertEquals(2, AlphaIndexing.getHashedNodeCount(hashed, Message.class));
+    Assert.assertEquals(1, AlphaIndexingTest.fire(hashed, "Hello 0"));
+    Assert.assertNull(System.getProperty(AlphaThresholdOption.PROPERTY_NAME));
+    // the KieBase of the container keeps the defaults
+    Assert.assertEquals(0, AlphaIndexing.getHashedNodeCount(kc.getKieBase("KBase"), Message.class));
+
+    // the container does not update it
+    final ReleaseId releaseId2 = ks.newReleaseId(AlphaIndexingTest.GROUP_ID, "test-alpha-indexing-conf", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, AlphaIndexingTest.rules(3));
+    kc.updateToVersion(releaseId2);
+    Assert.assertEquals(2, AlphaIndexing.getHashedNodeCount(hashed, Message.class));
+    Assert.assertEquals(0, AlphaIndexingTest.fire(hashed, "Hello 2"));
+    kc.dispose();
+  }
+
+  @Test
+  public void thresholdsAreKeptByUpdates() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(AlphaIndexingTest.GROUP_ID, "test-alpha-indexing-update", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, AlphaIndexingTest.rules(2));
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    final AlphaIndexing indexing = new AlphaIndexing(2, AlphaIndexing.DISABLED);
+    final KieBase kbase = indexing.getKieBase(kc, "KBase");
+    Assert.assertEquals(2, AlphaIndexing.getHashedNodeCount(kbase, Message.class));
+    Assert.assertNull(System.getProperty(AlphaThresholdOption.PROPERTY_NAME));
+
+    // the container updates the same KieBase, the new rule is hashed too
+    final ReleaseId releaseId2 = ks.newReleaseId(AlphaIndexingTest.GROUP_ID, "test-alpha-indexing-update", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, AlphaIndexingTest.rules(3));
+    kc.updateToVersion(releaseId2);
+    Assert.assertSame(kbase, kc.getKieBase("KBase"));
+    Assert.assertEquals(3, AlphaIndexing.getHashedNodeCount(kbase, Message.class));
+    Assert.assertEquals(1, AlphaIndexingTest.fire(kbase, "Hello 2"));
+
+    try {
+      new AlphaIndexing(AlphaIndexing.DISABLED, AlphaIndexing.DISABLED).getKieBase(kc, "KBase");
+      Assert.fail("the KieBase was already created");
+    } catch (final IllegalStateException e) {
+      // expected
+    }
+    kc.dispose();
+  }
+}
@@ -1,13 +1,14 @@
 package drools;
 
+import java.io.File;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import org.drools.compiler.kie.builder.impl.DrlProject;
 import org.drools.compiler.kie.builder.impl.InternalKieModule;
-import org.drools.core.impl.InternalKnowledgeBase;
-import org.drools.core.reteoo.EntryPointNode;
+import org.drools.compiler.kproject.models.KieModuleModelImpl;
 import org.drools.core.reteoo.ObjectTypeNode;
+import org.drools.modelcompiler.ExecutableModelProject;
 import org.junit.Assert;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -17,14 +18,18 @@ import org.kie.api.builder.KieBuilder;
 import org.kie.api.builder.KieFileSystem;
 import org.kie.api.builder.Message;
 import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.Results;
 import org.kie.api.builder.model.KieBaseModel;
 import org.kie.api.builder.model.KieModuleModel;
 import org.kie.api.builder.model.KieSessionModel;
 import org.kie.api.conf.EqualityBehaviorOption;
 import org.kie.api.conf.EventProcessingOption;
 import org.kie.api.runtime.ClassObjectFilter;
+import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.KieSession;
 import org.kie.api.runtime.conf.ClockTypeOption;
+import org.kie.internal.builder.conf.AlphaNetworkCompilerOption;
+import org.kie.internal.builder.conf.ParallelRulesBuildThresholdOption;
 
 /***
  * "Inspired" from
@@ -70,8 +75,28 @@ public abstract class BaseModelTest {
     }
   }
 
+  /**
+   * Built modules, shared by all tests of the JVM. Set <code>kjarCacheDir</code> to also keep them on disk between runs.
+   */
+  static final KieModuleCache KIE_MODULE_CACHE =
+      System.getProperty("kjarCacheDir") == null ? new KieModuleCache() : new KieModuleCache(new File(System.getProperty("kjarCacheDir")));
+
+  /**
+   * Set <code>parallelRulesBuildThreshold</code> to the number of rules of a package over which drools compiles its rules
+   * concurrently, 10 by default.
+   */
+  static final String PARALLEL_RULES_BUILD_THRESHOLD = System.getProperty("parallelRulesBuildThreshold");
+
+  /**
+   * Set <code>buildTimings</code> to time the files of each build, see {@link BuildTimings}.
+   */
+  static final boolean BUILD_TIMINGS = Boolean.parseBoolean(System.getProperty("buildTimings"));
+
   protected final RUN_TYPE testRunType;
 
+  /** timings of the last build of this test, <code>null</code> unless <code>buildTimings</code> is set */
+  protected BuildTimings lastBuildTimings;
+
 
   public BaseModelTest(final RUN_TYPE testRunType) {
     this.testRunType = testRunType;
@@ -87,32 +112,24 @@ public abstract class BaseModelTest {
     ks.getRepository().removeKieModule(releaseId);
 
     final KieFileSystem kfs = ks.newKieFileSystem();
-    if (model != null) {
-      kfs.writeKModuleXML(model.toXML());
-    } else {
-      final KieModuleModel kieModuleModel = ks.newKieModuleModel();
-
-      final KieBaseModel kieBaseModel =
-          kieModuleModel.newKieBaseModel("KBase").setDefault(true).setEqualsBehavior(EqualityBehaviorOption.IDENTITY).setEventProcessingMode(eventProcessingMode);
-
-      if (eventProcessingMode.equals(EventProcessingOption.STREAM)) {
-        kieBaseModel.newKieSessionModel("KSession").setDefault(true).setType(KieSessionModel.KieSessionType.STATEFUL).setClockType(ClockTypeOption.get("pseudo"));
-      } else {
-        kieBaseModel.newKieSessionModel("KSession").setDefault(true);
-      }
-      kfs.writeKModuleXML(kieModuleModel.toXML());
-    }
-
+    kfs.writeKModuleXML(this.getKModuleXML(ks, model, eventProcessingMode));
     kfs.writePomXML(KJARUtils.getPom(releaseId));
     for (int i = 0; i < stringRules.length; i++) {
       kfs.write(stringRules[i].path, stringRules[i].content);
     }
 
+    final BuildTimings timings = BaseModelTest.BUILD_TIMINGS ? BuildTimings.parse(stringRules) : null;
     KieBuilder kieBuilder;
-    kieBuilder = ks.newKieBuilder(kfs).buildAll(DrlProject.class);
+    final long start = System.nanoTime();
+    kieBuilder = ks.newKieBuilder(kfs).buildAll(this.getProjectClass());
+    if (timings != null) {
+      timings.setBuildNanos(System.nanoTime() - start);
+      timings.log(10);
+      this.lastBuildTimings = timings;
+    }
 
     if (failIfBuildError) {
-      final List<Message> messages = kieBuilder.getResults().getMessages();
+      final List<Message> messages = BuildMessages.sorted(kieBuilder.getResults().getMessages());
       if (!messages.isEmpty()) {
         Assert.fail(messages.toString());
       }
@@ -121,6 +138,40 @@ public abstract class BaseModelTest {
     return kieBuilder;
   }
 
+  /**
+   * @return the executable model (pattern DSL) project when the run type asks for it, the plain DRL one otherwise
+   */
+  protected Class<? extends KieBuilder.ProjectType> getProjectClass() {
+    return this.testRunType.isExecutableModel() ? ExecutableModelProject.class : DrlProject.class;
+  }
+
+  protected String getKModuleXML(final KieServices ks, final KieModuleModel model, final EventProcessingOption eventProcessingMode) {
+    // a copy, the model of the caller is left untouched
+    if (model != null) { return this.withBuildOptions(KieModuleModelImpl.fromXML(model.toXML())).toXML(); }
+
+    final KieModuleModel kieModuleModel = this.withBuildOptions(ks.newKieModuleModel());
+
+    final KieBaseModel kieBaseModel =
+        kieModuleModel.newKieBaseModel("KBase").setDefault(true).setEqualsBehavior(EqualityBehaviorOption.IDENTITY).setEventProcessingMode(eventProcessingMode);
+
+    if (eventProcessingMode.equals(EventProcessingOption.STREAM)) {
+      kieBaseModel.newKieSessionModel("KSession").setDefault(true).setType(KieSessionModel.KieSessionType.STATEFUL).setClockType(ClockTypeOption.get("pseudo"));
+    } else {
+      kieBaseModel.newKieSessionModel("KSession").setDefault(true);
+    }
+    return kieModuleModel.toXML();
+  }
+
+  private KieModuleModel withBuildOptions(final KieModuleModel kieModuleModel) {
+    if (this.testRunType.isAlphaNetworkCompiler()) {
+      kieModuleModel.setConfigurationProperty(AlphaNetworkCompilerOption.PROPERTY_NAME, AlphaNetworkCompilerOption.INMEMORY.name());
+    }
+    if (BaseModelTest.PARALLEL_RULES_BUILD_THRESHOLD != null) {
+      kieModuleModel.setConfigurationProperty(ParallelRulesBuildThresholdOption.PROPERTY_NAME, BaseModelTest.PARALLEL_RULES_BUILD_THRESHOLD);
+    }
+    return kieModuleModel;
+  }
+
   public static <T> List<T> getObjectsIntoList(final KieSession ksession, final Class<T> clazz) {
     return (List<T>) ksession.getObjects(new ClassObjectFilter(clazz)).stream().collect(Collectors.toList());
   }
@@ -141,11 +192,50 @@ public abstract class BaseModelTest {
   protected void createAndDeployJar(final KieServices ks, final KieModuleModel model, final EventProcessingOption eventProcessingMode, final ReleaseId releaseId,
                                     final KieFile... ruleFiles) {
 
-    final KieBuilder kieBuilder = this.createKieBuilder(ks, model, eventProcessingMode, releaseId, ruleFiles);
-    final InternalKieModule kieModule = (InternalKieModule) kieBuilder.getKieModule();
+    final String key = KieModuleCache.computeKey(this.getProjectClass(), this.getKModuleXML(ks, model, eventProcessingMode), KJARUtils.getPom(releaseId), ruleFiles);
+    InternalKieModule kieModule = BaseModelTest.KIE_MODULE_CACHE.get(releaseId, key);
+    if (kieModule == null) {
+      final long start = System.nanoTime();
+      final KieBuilder kieBuilder = this.createKieBuilder(ks, model, eventProcessingMode, releaseId, ruleFiles);
+      kieModule = (InternalKieModule) kieBuilder.getKieModule();
+      BaseModelTest.KIE_MODULE_CACHE.put(key, kieModule, System.nanoTime() - start);
+    }
     ks.getRepository().addKieModule(kieModule);
   }
 
+  /**
+   * Deploys a new version and updates the container to it, reporting what changed. Rules that did not change keep their
+   * matches: a {@link RefireGuard} attached to the sessions of the container filters out the ones the update recreates.
+   */
+  protected KieModuleDelta createAndDeployDelta(final KieServices ks, final KieContainer kc, final EventProcessingOption eventProcessingMode, final ReleaseId releaseId,
+                                                final RefireGuard guard, final String... drls) {
+    final KieModuleDelta delta = this.deployDelta(ks, kc, eventProcessingMode, releaseId, drls);
+    this.updateToVersion(kc, releaseId, delta, guard);
+    return delta;
+  }
+
+  /**
+   * Deploys a new version, without updating the container to it.
+   *
+   * @return the changes from the version of the container
+   */
+  protected KieModuleDelta deployDelta(final KieServices ks, final KieContainer kc, final EventProcessingOption eventProcessingMode, final ReleaseId releaseId,
+                                       final String... drls) {
+    final InternalKieModule oldModule = (InternalKieModule) ks.getRepository().getKieModule(kc.getReleaseId());
+    this.createAndDeployJar(ks, eventProcessingMode, releaseId, drls);
+    return KieModuleDelta.between(oldModule, (InternalKieModule) ks.getRepository().getKieModule(releaseId));
+  }
+
+  protected void updateToVersion(final KieContainer kc, final ReleaseId releaseId, final KieModuleDelta delta, final RefireGuard guard) {
+    if (guard != null) {
+      guard.expect(delta);
+    }
+    final Results results = kc.updateToVersion(releaseId);
+    if (results.hasMessages(Message.Level.ERROR)) {
+      Assert.fail(results.getMessages().toString());
+    }
+  }
+
   public static class KieFile {
 
     public final String path;
@@ -170,10 +260,6 @@ public abstract class BaseModelTest {
   }
 
   protected ObjectTypeNode getObjectTypeNodeForClass(final KieSession ksession, final Class<?> clazz) {
-    final EntryPointNode epn = ((InternalKnowledgeBase) ksession.getKieBase()).getRete().getEntryPointNodes().values().iterator().next();
-    for (final ObjectTypeNode otn : epn.getObjectTypeNodes().values()) {
-      if (otn.getObjectType().isAssignableFrom(clazz)) { return otn; }
-    }
-    return null;
+    return new ReteInspector(ksession.getKieBase()).getObjectTypeNode(clazz);
   }
 }
\ No newline at end of file
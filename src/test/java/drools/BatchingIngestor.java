@@ -0,0 +1,224 @@
+package drools;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.EntryPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds a {@link KieSession} from any number of producer threads.
+ *
+ * Producers only enqueue facts in a lock-free queue. A single engine thread, the only one touching the session, drains
+ * it by batches of at most <code>batchSize</code> facts or <code>window</code> of time, inserts them in the entry point
+ * and calls <code>fireAllRules</code> once per batch. The queue is bounded to <code>capacity</code> facts:
+ * {@link #offer(Object)} refuses facts beyond that, {@link #put(Object)} waits, until the ingestor is closed or its engine
+ * thread fails.
+ */
+public class BatchingIngestor implements AutoCloseable {
+  static final Logger LOG = LoggerFactory.getLogger(BatchingIngestor.class);
+  /** period at which a waiting {@link #put(Object)} checks whether the ingestor is still open */
+  private static final long WAIT_MILLIS = 100;
+
+  private final KieSession ksession;
+  private final EntryPoint entryPoint;
+  private final int batchSize;
+  private final long windowNanos;
+
+  private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+  private final Semaphore capacity;
+  private final AtomicInteger depth = new AtomicInteger();
+  private final Thread engineThread;
+  private volatile boolean running = true;
+  private volatile RuntimeException failure;
+
+  private final AtomicLong inserted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong fired = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong totalBatchNanos = new AtomicLong();
+  private volatile long lastBatchNanos;
+  private volatile long maxBatchNanos;
+
+  public BatchingIngestor(final KieSession ksession, final String entryPointName, final int batchSize, final long window, final TimeUnit unit, final int capacity) {
+    if (batchSize < 1 || capacity < batchSize) {
+      throw new IllegalArgumentException("Expecting 0 < batchSize <= capacity, got " + batchSize + " and " + capacity);
+    }
+    this.ksession = ksession;
+    this.entryPoint = ksession.getEntryPoint(entryPointName);
+    if (this.entryPoint == null) {
+      throw new IllegalArgumentException("Unknown entry point " + entryPointName);
+    }
+    this.batchSize = batchSize;
+    this.windowNanos = unit.toNanos(window);
+    this.capacity = new Semaphore(capacity);
+    this.engineThread = new Thread(this::run, "ingestor-" + entryPointName);
+    this.engineThread.setDaemon(true);
+    this.engineThread.start();
+  }
+
+  /**
+   * @return <code>false</code> if the queue is full
+   */
+  public boolean offer(final Object fact) {
+    this.checkOpen();
+    if (!this.capacity.tryAcquire()) {
+      this.rejected.incrementAndGet();
+      return false;
+    }
+    this.enqueue(fact);
+    return true;
+  }
+
+  /**
+   * Waits for room in the queue.
+   *
+   * @throws IllegalStateException if the ingestor is closed or its engine thread failed, while waiting as well
+   */
+  public void put(final Object fact) throws InterruptedException {
+    this.checkOpen();
+    while (!this.capacity.tryAcquire(BatchingIngestor.WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+      this.checkOpen();
+    }
+    if (this.failure != null || !this.running) {
+      this.capacity.release();
+      this.checkOpen();
+    }
+    this.enqueue(fact);
+  }
+
+  private void checkOpen() {
+    if (this.failure != null) { throw new IllegalStateException("Engine thread failed", this.failure); }
+    if (!this.running) { throw new IllegalStateException("Ingestor is closed"); }
+  }
+
+  private void enqueue(final Object fact) {
+    // counted first, so that the depth is never below the size of the queue
+    final boolean wasEmpty = this.depth.getAndIncrement() == 0;
+    this.queue.add(fact);
+    if (wasEmpty) {
+      LockSupport.unpark(this.engineThread);
+    }
+  }
+
+  private Object poll() {
+    final Object fact = this.queue.poll();
+    if (fact != null) {
+      this.depth.decrementAndGet();
+      this.capacity.release();
+    }
+    return fact;
+  }
+
+  private void run() {
+    try {
+      while (this.running || !this.queue.isEmpty()) {
+        Object fact = this.poll();
+        if (fact == null) {
+          LockSupport.parkNanos(this, this.windowNanos);
+          continue;
+        }
+
+        final long start = System.nanoTime();
+        final long deadline = start + this.windowNanos;
+        int size = 0;
+        while (true) {
+          if (fact != null) {
+            this.entryPoint.insert(fact);
+            if (++size == this.batchSize) { break; }
+          } else {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !this.running) { break; }
+            LockSupport.parkNanos(this, remaining);
+          }
+          fact = this.poll();
+        }
+        this.fired.addAndGet(this.ksession.fireAllRules());
+        this.inserted.addAndGet(size);
+        this.recordBatch(System.nanoTime() - start);
+      }
+    } catch (final RuntimeException e) {
+      BatchingIngestor.LOG.error("Engine thread failed, stopping ingestion", e);
+      this.failure = e;
+      this.running = false;
+      // wakes the producers waiting for room, they throw the failure
+      this.capacity.release(Math.max(1, this.capacity.getQueueLength()));
+    }
+  }
+
+  private void recordBatch(final long nanos) {
+    this.batches.incrementAndGet();
+    this.totalBatchNanos.addAndGet(nanos);
+    this.lastBatchNanos = nanos;
+    if (nanos > this.maxBatchNanos) {
+      this.maxBatchNanos = nanos;
+    }
+  }
+
+  /**
+   * Stops accepting facts, and returns once the queued ones have been inserted and fired. Producers are expected to be
+   * done by then.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    this.running = false;
+    LockSupport.unpark(this.engineThread);
+    this.engineThread.join();
+    if (this.failure != null) { throw new IllegalStateException("Engine thread failed", this.failure); }
+  }
+
+  public int getQueueDepth() {
+    return this.depth.get();
+  }
+
+  public long getInsertedCount() {
+    return this.inserted.get();
+  }
+
+  /**
+   * @return facts refused by {@link #offer(Object)} because the queue was full
+   */
+  public long getRejectedCount() {
+    return this.rejected.get();
+  }
+
+  /**
+   * @return the sum of the <code>fireAllRules</code> results
+   */
+  public long getFiredCount() {
+    return this.fired.get();
+  }
+
+  public long getBatchCount() {
+    return this.batches.get();
+  }
+
+  /**
+   * Latencies cover insert and fire of a batch, from its first fact being dequeued.
+   */
+  public long getLastBatchLatency(final TimeUnit unit) {
+    return unit.convert(this.lastBatchNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public long getMaxBatchLatency(final TimeUnit unit) {
+    return unit.convert(this.maxBatchNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public long getMeanBatchLatency(final TimeUnit unit) {
+    final long count = this.batches.get();
+    return count == 0 ? 0 : unit.convert(this.totalBatchNanos.get() / count, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "BatchingIngestor[inserted=" + this.getInsertedCount() + ", fired=" + this.getFiredCount() + ", batches=" + this.getBatchCount() + ", depth="
+        + this.getQueueDepth() + ", rejected=" + this.getRejectedCount() + ", meanBatch=" + this.getMeanBatchLatency(TimeUnit.MICROSECONDS) + "us]";
+  }
+}
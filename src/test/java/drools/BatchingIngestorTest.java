@@ -0,0 +1,128 @@
+package drools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+public class BatchingIngestorTest extends BaseModelTest {
+  private static final String DRL = "package org.drools.ingestion\n rule R1 when\n $s : String( this.startsWith(\"H\") )\n then\n end\n";
+  private static final String FAILING_DRL = "package org.drools.ingestion\n rule Fail when\n String( this == \"Boom\" )\n then\n"
+      + " throw new IllegalArgumentException(\"Boom\");\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public BatchingIngestorTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void factsFromManyProducersAreFiredByBatches() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(BatchingIngestorTest.GROUP_ID, "test-ingestion", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, BatchingIngestorTest.DRL);
+
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+    final BatchingIngestor ingestor = new BatchingIngestor(ksession, "DEFAULT", 500, 5, TimeUnit.MILLISECONDS, 2000);
+
+    final int producers = 4;
+    final int factsPerProducer = 5000;
+    final List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      final Thread thread = new Thread(() -> {
+        for (int i = 0; i < factsPerProducer; i++) {
+          try {
+            ingestor.put((i % 2 == 0 ? "Hello " : "World ") + producer + "-" + i);
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    ingestor.close();
+
+    Assert.assertEquals(producers * factsPerProducer, ingestor.getInsertedCount());
+    Assert.assertEquals(producers * factsPerProducer / 2, ingestor.getFiredCount());
+    Assert.assertEquals(producers * factsPerProducer, ksession.getFactCount());
+    Assert.assertEquals(0, ingestor.getQueueDepth());
+    Assert.assertTrue(ingestor.toString(), ingestor.getBatchCount() >= producers * factsPerProducer / 500);
+    Assert.assertTrue(ingestor.toString(), ingestor.getBatchCount() < producers * factsPerProducer);
+
+    ksession.dispose();
+  }
+
+  @Test
+  public void offerIsRefusedWhenQueueIsFull() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(BatchingIngestorTest.GROUP_ID, "test-ingestion", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, BatchingIngestorTest.DRL);
+
+    final KieSession ksession = ks.newKieContainer(releaseId).newKieSession();
+    // a long window keeps the first batch open while the queue fills up
+    final BatchingIngestor ingestor = new BatchingIngestor(ksession, "DEFAULT", 10, 1, TimeUnit.SECONDS, 10);
+    int accepted = 0;
+    for (int i = 0; i < 100; i++) {
+      if (ingestor.offer("Hello " + i)) {
+        accepted++;
+      }
+    }
+    ingestor.close();
+
+    Assert.assertEquals(100, accepted + ingestor.getRejectedCount());
+    Assert.assertTrue(ingestor.toString(), ingestor.getRejectedCount() > 0);
+    Assert.assertEquals(accepted, ingestor.getFiredCount());
+
+    ksession.dispose();
+  }
+
+  @Test
+  public void waitingProducersFailWithTheEngineThread() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(BatchingIngestorTest.GROUP_ID, "test-ingestion-failure", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, BatchingIngestorTest.FAILING_DRL);
+
+    final KieSession ksession = ks.newKieContainer(releaseId).newKieSession();
+    final BatchingIngestor ingestor = new BatchingIngestor(ksession, "DEFAULT", 1, 1, TimeUnit.MILLISECONDS, 1);
+    final List<Exception> failures = new ArrayList<>();
+    final Thread producer = new Thread(() -> {
+      try {
+        ingestor.put("Boom");
+        for (int i = 0; i < 100; i++) {
+          ingestor.put("Hello " + i);
+        }
+      } catch (final InterruptedException | IllegalStateException e) {
+        failures.add(e);
+      }
+    });
+    producer.start();
+    producer.join(TimeUnit.SECONDS.toMillis(30));
+
+    Assert.assertFalse("producer still waiting for room", producer.isAlive());
+    Assert.assertEquals(1, failures.size());
+    Assert.assertTrue(failures.get(0).toString(), failures.get(0) instanceof IllegalStateException);
+    Assert.assertNotNull(failures.get(0).getCause());
+    try {
+      ingestor.close();
+      Assert.fail("Expecting close to report the failure");
+    } catch (final IllegalStateException e) {
+      // expected
+    }
+
+    ksession.dispose();
+  }
+}
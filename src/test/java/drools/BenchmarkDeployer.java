@@ -0,0 +1,27 @@
+package drools;
+
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+
+/**
+ * Gives the JMH benchmarks access to the {@link BaseModelTest} build and deploy methods for a given {@link RUN_TYPE}.
+ */
+class BenchmarkDeployer extends BaseModelTest {
+
+  BenchmarkDeployer(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  /**
+   * Always compiles, bypassing {@link BaseModelTest#KIE_MODULE_CACHE}.
+   */
+  KieBuilder build(final KieServices ks, final EventProcessingOption eventProcessingMode, final ReleaseId releaseId, final String... drls) {
+    return this.createKieBuilder(ks, null, eventProcessingMode, releaseId, this.toKieFiles(drls));
+  }
+
+  void deploy(final KieServices ks, final EventProcessingOption eventProcessingMode, final ReleaseId releaseId, final String... drls) {
+    this.createAndDeployJar(ks, eventProcessingMode, releaseId, drls);
+  }
+}
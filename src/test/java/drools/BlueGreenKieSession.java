@@ -0,0 +1,374 @@
+package drools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.core.common.InternalFactHandle;
+import org.drools.core.rule.EntryPointId;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.ObjectFilter;
+import org.kie.api.runtime.rule.EntryPoint;
+import org.kie.api.runtime.rule.FactHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A session that is upgraded by switching to a new session of a new container, instead of updating its KieBase in place
+ * with {@link KieContainer#updateToVersion(ReleaseId)}.
+ *
+ * The new container and session are created in the background while the current one keeps serving. The facts of all
+ * its entry points are then copied to the new session, and the inserts, updates and deletes that happened in the
+ * meantime, from this class or from the consequences of the rules, are replayed before the switch. A
+ * {@link RefireGuard} shared by both sessions ensures that a match fired by the old session does not fire again in the new
+ * one. Logical inserts are replayed as plain inserts.
+ *
+ * The session itself is not exposed: it changes on every swap, and operations must go through this class to be
+ * serialized with the swap. Swaps are serialized with each other.
+ */
+public class BlueGreenKieSession {
+  static final Logger LOG = LoggerFactory.getLogger(BlueGreenKieSession.class);
+
+  private final KieServices ks;
+  private final RefireGuard guard = new RefireGuard();
+  private final ReentrantLock lock = new ReentrantLock();
+  /** held for the whole swap, {@link #lock} being held only to copy the facts and to switch */
+  private final ReentrantLock swapLock = new ReentrantLock();
+
+  private KieContainer kc;
+  private KieSession ksession;
+
+  public BlueGreenKieSession(final KieServices ks, final ReleaseId releaseId) {
+    this.ks = ks;
+    this.kc = ks.newKieContainer(releaseId);
+    this.ksession = this.kc.newKieSession();
+    this.guard.attach(this.ksession);
+  }
+
+  public FactHandle insert(final Object fact) {
+    return this.insert(EntryPointId.DEFAULT.getEntryPointId(), fact);
+  }
+
+  public FactHandle insert(final String entryPoint, final Object fact) {
+    this.lock.lock();
+    try {
+      return this.getEntryPoint(entryPoint).insert(fact);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public void update(final Object fact) {
+    this.update(EntryPointId.DEFAULT.getEntryPointId(), fact);
+  }
+
+  /**
+   * Notifies the session that the fact changed, nothing if the fact is not in the entry point.
+   */
+  public void update(final String entryPoint, final Object fact) {
+    this.lock.lock();
+    try {
+      final EntryPoint ep = this.getEntryPoint(entryPoint);
+      final FactHandle handle = ep.getFactHandle(fact);
+      if (handle != null) {
+        ep.update(handle, fact);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public void delete(final Object fact) {
+    this.delete(EntryPointId.DEFAULT.getEntryPointId(), fact);
+  }
+
+  public void delete(final String entryPoint, final Object fact) {
+    this.lock.lock();
+    try {
+      final EntryPoint ep = this.getEntryPoint(entryPoint);
+      final FactHandle handle = ep.getFactHandle(fact);
+      if (handle != null) {
+        ep.delete(handle);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private EntryPoint getEntryPoint(final String entryPoint) {
+    final EntryPoint ep = this.ksession.getEntryPoint(entryPoint);
+    if (ep == null) {
+      throw new IllegalArgumentException("Unknown entry point " + entryPoint + " in " + this.kc.getReleaseId());
+    }
+    return ep;
+  }
+
+  public int fireAllRules() {
+    this.lock.lock();
+    try {
+      return this.guard.fireAllRules(this.ksession);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Moves to a session of the given version. The current session keeps serving until the switch, and is kept if the
+   * swap fails or is interrupted.
+   *
+   * @param filter the facts to migrate, for instance a <code>ClassObjectFilter</code> leaving out the instances of
+   *        declared types of the old version; <code>null</code> for all of them
+   */
+  public SwapReport swapTo(final ReleaseId releaseId, final ObjectFilter filter) throws InterruptedException {
+    this.swapLock.lockInterruptibly();
+    try {
+      return this.swap(releaseId, filter);
+    } finally {
+      this.swapLock.unlock();
+    }
+  }
+
+  private SwapReport swap(final ReleaseId releaseId, final ObjectFilter filter) throws InterruptedException {
+    final long start = System.nanoTime();
+    final CompletableFuture<KieContainer> newContainer = CompletableFuture.supplyAsync(() -> this.ks.newKieContainer(releaseId));
+
+    // copy the current facts, and record what comes next
+    final Map<String, List<Object>> facts = new LinkedHashMap<>();
+    final Journal journal = new Journal();
+    long pauseStart = System.nanoTime();
+    this.lock.lock();
+    try {
+      for (final EntryPoint entryPoint : this.ksession.getEntryPoints()) {
+        facts.put(entryPoint.getEntryPointId(), new ArrayList<>(filter == null ? entryPoint.getObjects() : entryPoint.getObjects(filter)));
+      }
+      this.ksession.addEventListener(journal);
+    } finally {
+      this.lock.unlock();
+    }
+    long pauseNanos = System.nanoTime() - pauseStart;
+
+    KieContainer greenContainer = null;
+    KieSession green = null;
+    boolean swapped = false;
+    try {
+      try {
+        greenContainer = newContainer.get();
+      } catch (final ExecutionException e) {
+        throw new IllegalStateException("Cannot create container for " + releaseId, e.getCause());
+      }
+      green = greenContainer.newKieSession();
+      this.guard.attach(green);
+      int migrated = 0;
+      for (final Map.Entry<String, List<Object>> entry : facts.entrySet()) {
+        final EntryPoint entryPoint = green.getEntryPoint(entry.getKey());
+        if (entryPoint == null) {
+          BlueGreenKieSession.LOG.warn("No entry point " + entry.getKey() + " in " + releaseId + ", " + entry.getValue().size() + " facts dropped");
+          continue;
+        }
+        for (final Object fact : entry.getValue()) {
+          entryPoint.insert(fact);
+          migrated++;
+        }
+      }
+      // once the new KieBase is built: the change set hands the knowledge builder of the old module over to the new one
+      final KieModuleDelta delta = KieModuleDelta.between((InternalKieModule) this.ks.getRepository().getKieModule(this.kc.getReleaseId()),
+          (InternalKieModule) this.ks.getRepository().getKieModule(releaseId));
+      final long warmupNanos = System.nanoTime() - start;
+
+      // replay and switch
+      final int replayed;
+      pauseStart = System.nanoTime();
+      this.lock.lock();
+      try {
+        this.ksession.removeEventListener(journal);
+        replayed = journal.replay(green, filter);
+        this.guard.moveTo(green);
+        this.guard.expect(delta);
+        this.ksession.dispose();
+        this.kc.dispose();
+        this.ksession = green;
+        this.kc = greenContainer;
+        swapped = true;
+      } finally {
+        this.lock.unlock();
+      }
+      pauseNanos += System.nanoTime() - pauseStart;
+
+      final SwapReport report = new SwapReport(releaseId, migrated, replayed, warmupNanos, pauseNanos);
+      BlueGreenKieSession.LOG.info(report.toString());
+      return report;
+    } finally {
+      if (!swapped) {
+        this.abort(journal, newContainer, green);
+      }
+    }
+  }
+
+  private void abort(final Journal journal, final CompletableFuture<KieContainer> newContainer, final KieSession green) {
+    this.lock.lock();
+    try {
+      this.ksession.removeEventListener(journal);
+    } finally {
+      this.lock.unlock();
+    }
+    if (green != null) {
+      green.dispose();
+    }
+    // still being built if the swap was interrupted
+    newContainer.thenAccept(KieContainer::dispose);
+  }
+
+  public KieContainer getKieContainer() {
+    return this.kc;
+  }
+
+  public RefireGuard getGuard() {
+    return this.guard;
+  }
+
+  public void dispose() {
+    this.lock.lock();
+    try {
+      this.ksession.dispose();
+      this.kc.dispose();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Inserts, updates and deletes of a session, from its API or from its rules.
+   */
+  private static class Journal implements RuleRuntimeEventListener {
+    private final List<Operation> operations = new ArrayList<>();
+
+    @Override
+    public void objectInserted(final ObjectInsertedEvent event) {
+      this.operations.add(new Operation(OperationType.INSERT, event.getFactHandle(), event.getObject()));
+    }
+
+    @Override
+    public void objectUpdated(final ObjectUpdatedEvent event) {
+      this.operations.add(new Operation(OperationType.UPDATE, event.getFactHandle(), event.getObject()));
+    }
+
+    @Override
+    public void objectDeleted(final ObjectDeletedEvent event) {
+      this.operations.add(new Operation(OperationType.DELETE, event.getFactHandle(), event.getOldObject()));
+    }
+
+    /**
+     * @return the number of operations
+     */
+    int replay(final KieSession green, final ObjectFilter filter) {
+      for (final Operation operation : this.operations) {
+        final EntryPoint entryPoint = green.getEntryPoint(operation.entryPoint);
+        if (entryPoint == null) { continue; }
+        final FactHandle handle = entryPoint.getFactHandle(operation.fact);
+        switch (operation.type) {
+          case INSERT:
+            if (handle == null && (filter == null || filter.accept(operation.fact))) {
+              entryPoint.insert(operation.fact);
+            }
+            break;
+          case UPDATE:
+            if (handle != null) {
+              entryPoint.update(handle, operation.fact);
+            }
+            break;
+          case DELETE:
+            if (handle != null) {
+              entryPoint.delete(handle);
+            }
+            break;
+          default:
+            break;
+        }
+      }
+      return this.operations.size();
+    }
+  }
+
+  private enum OperationType {
+    INSERT, UPDATE, DELETE
+  }
+
+  private static class Operation {
+    private final OperationType type;
+    private final String entryPoint;
+    private final Object fact;
+
+    Operation(final OperationType type, final FactHandle handle, final Object fact) {
+      this.type = type;
+      this.entryPoint = ((InternalFactHandle) handle).getEntryPointName();
+      this.fact = fact;
+    }
+  }
+
+  public static class SwapReport {
+    private final ReleaseId releaseId;
+    private final int migratedFacts;
+    private final int replayedOperations;
+    private final long warmupNanos;
+    private final long pauseNanos;
+
+    SwapReport(final ReleaseId releaseId, final int migratedFacts, final int replayedOperations, final long warmupNanos, final long pauseNanos) {
+      this.releaseId = releaseId;
+      this.migratedFacts = migratedFacts;
+      this.replayedOperations = replayedOperations;
+      this.warmupNanos = warmupNanos;
+      this.pauseNanos = pauseNanos;
+    }
+
+    public ReleaseId getReleaseId() {
+      return this.releaseId;
+    }
+
+    /**
+     * @return facts copied from the old session
+     */
+    public int getMigratedFacts() {
+      return this.migratedFacts;
+    }
+
+    /**
+     * @return inserts, updates and deletes received during the copy, and replayed on the new session
+     */
+    public int getReplayedOperations() {
+      return this.replayedOperations;
+    }
+
+    /**
+     * @return time spent building and loading the new session, while the old one was still serving
+     */
+    public long getWarmupTime(final TimeUnit unit) {
+      return unit.convert(this.warmupNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return time during which the session did not accept operations
+     */
+    public long getPauseTime(final TimeUnit unit) {
+      return unit.convert(this.pauseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return "SwapReport[" + this.releaseId + ", migrated=" + this.migratedFacts + ", replayed=" + this.replayedOperations + ", warmup="
+          + this.getWarmupTime(TimeUnit.MILLISECONDS) + "ms, pause=" + this.getPauseTime(TimeUnit.MICROSECONDS) + "us]";
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package drools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.ClassObjectFilter;
+
+public class BlueGreenKieSessionTest extends BaseModelTest {
+  private static final String DRL1 = "package org.drools.bluegreen\n import " + Message.class.getCanonicalName() + ";\n"
+      + "rule Orders when\n $m : Message( value.startsWith(\"H\") ) from entry-point \"orders\"\nthen\nend\n";
+  private static final String DRL2_1 = "package org.drools.bluegreen\n import " + Message.class.getCanonicalName() + ";\n"
+      + "rule Other when\n $m : Message( value == \"Hi\" )\nthen\nend\n";
+  private static final String DRL2_2 = DRL2_1.replace("\"Hi\"", "\"Hello\"");
+  private static final String DRL_TOKEN = "package org.drools.bluegreen\n import " + Message.class.getCanonicalName() + ";\n"
+      + "declare Token end\n"
+      + "rule Init when\n not Token()\nthen\n insert(new Token());\nend\n"
+      + "rule Join when\n Token()\n $m : Message( value == \"Hi\" )\nthen\nend\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public BlueGreenKieSessionTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void factsOfAllEntryPointsAreMigrated() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(BlueGreenKieSessionTest.GROUP_ID, "test-bluegreen", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, BlueGreenKieSessionTest.DRL1, BlueGreenKieSessionTest.DRL2_1);
+    final ReleaseId releaseId2 = ks.newReleaseId(BlueGreenKieSessionTest.GROUP_ID, "test-bluegreen", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, BlueGreenKieSessionTest.DRL1, BlueGreenKieSessionTest.DRL2_2);
+
+    final BlueGreenKieSession session = new BlueGreenKieSession(ks, releaseId1);
+    session.insert("orders", new Message("Hello"));
+    Assert.assertEquals(1, session.fireAllRules());
+
+    final BlueGreenKieSession.SwapReport report = session.swapTo(releaseId2, null);
+    Assert.assertEquals(1, report.getMigratedFacts());
+    Assert.assertEquals("Orders already fired", 0, session.fireAllRules());
+
+    session.insert("orders", new Message("Hello again"));
+    Assert.assertEquals(1, session.fireAllRules());
+    session.dispose();
+  }
+
+  @Test
+  public void factsLeftOutAreCreatedAgain() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(BlueGreenKieSessionTest.GROUP_ID, "test-bluegreen-token", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, BlueGreenKieSessionTest.DRL_TOKEN, BlueGreenKieSessionTest.DRL2_1);
+    final ReleaseId releaseId2 = ks.newReleaseId(BlueGreenKieSessionTest.GROUP_ID, "test-bluegreen-token", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, BlueGreenKieSessionTest.DRL_TOKEN, BlueGreenKieSessionTest.DRL2_2);
+
+    final BlueGreenKieSession session = new BlueGreenKieSession(ks, releaseId1);
+    session.insert(new Message("Hi"));
+    Assert.assertEquals("Init, Join and Other", 3, session.fireAllRules());
+
+    // the token of the old version is left out
+    final BlueGreenKieSession.SwapReport report = session.swapTo(releaseId2, new ClassObjectFilter(Message.class));
+    Assert.assertEquals(1, report.getMigratedFacts());
+    Assert.assertEquals("Init creating the token again, and Join on it", 2, session.fireAllRules());
+    session.dispose();
+  }
+
+  @Test
+  public void failedSwapKeepsTheSession() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(BlueGreenKieSessionTest.GROUP_ID, "test-bluegreen-failed", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, BlueGreenKieSessionTest.DRL1, BlueGreenKieSessionTest.DRL2_1);
+
+    final BlueGreenKieSession session = new BlueGreenKieSession(ks, releaseId1);
+    try {
+      session.swapTo(ks.newReleaseId(BlueGreenKieSessionTest.GROUP_ID, "test-bluegreen-failed", "9.9.9"), null);
+      Assert.fail("Expecting the swap to an unknown release to fail");
+    } catch (final IllegalStateException e) {
+      // expected
+    }
+    Assert.assertEquals(releaseId1, session.getKieContainer().getReleaseId());
+
+    session.insert(new Message("Hi"));
+    Assert.assertEquals(1, session.fireAllRules());
+    final ReleaseId releaseId2 = ks.newReleaseId(BlueGreenKieSessionTest.GROUP_ID, "test-bluegreen-failed", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, BlueGreenKieSessionTest.DRL1, BlueGreenKieSessionTest.DRL2_2);
+    final BlueGreenKieSession.SwapReport report = session.swapTo(releaseId2, null);
+    Assert.assertEquals("nothing journaled by the failed swap", 0, report.getReplayedOperations());
+    Assert.assertEquals(1, report.getMigratedFacts());
+    session.dispose();
+  }
+}
@@ -0,0 +1,27 @@
+package drools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.kie.api.builder.Message;
+
+/**
+ * Build messages in an order that does not depend on the order drools reports them in, which varies with the rules it
+ * compiles concurrently.
+ */
+public class BuildMessages {
+  /** build messages by level, path, line, column and text */
+  public static final Comparator<Message> ORDER = Comparator.comparing(Message::getLevel).thenComparing(m -> String.valueOf(m.getPath()))
+      .thenComparingInt(Message::getLine).thenComparingInt(Message::getColumn).thenComparing(m -> String.valueOf(m.getText()));
+
+  private BuildMessages() {
+  }
+
+  public static List<Message> sorted(final Collection<Message> messages) {
+    final List<Message> sorted = new ArrayList<>(messages);
+    sorted.sort(BuildMessages.ORDER);
+    return sorted;
+  }
+}
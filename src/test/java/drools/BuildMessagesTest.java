@@ -0,0 +1,67 @@
+package drools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.Message;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+
+public class BuildMessagesTest extends BaseModelTest {
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public BuildMessagesTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  /**
+   * <code>files</code> files spread over 4 packages, of 20 rules on the strings starting with their index.
+   */
+  private static String[] drls(final int files) {
+    final String[] drls = new String[files];
+    for (int f = 0; f < files; f++) {
+      final StringBuilder drl = new StringBuilder("package org.drools.messages.p").append(f % 4).append('\n');
+      for (int r = 0; r < 20; r++) {
+        drl.append("rule R").append(f).append('_').append(r).append(" when\n $s : String( this.startsWith(\"").append(f).append("-\") )\nthen\nend\n");
+      }
+      drls[f] = drl.toString();
+    }
+    return drls;
+  }
+
+  @Test
+  public void messagesAreSorted() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(BuildMessagesTest.GROUP_ID, "test-messages", "1.0.0");
+    final String[] drls = BuildMessagesTest.drls(8);
+    drls[6] = drls[6].replace("rule R6_3 when\n $s : String(", "rule R6_3 when\n $s : Unknown(");
+    drls[2] = drls[2].replace("rule R2_7 when\n $s : String(", "rule R2_7 when\n $s : Missing(");
+    final KieBuilder kieBuilder = this.createKieBuilder(ks, null, EventProcessingOption.CLOUD, releaseId, false, this.toKieFiles(drls));
+
+    final List<Message> messages = BuildMessages.sorted(kieBuilder.getResults().getMessages());
+    Assert.assertFalse(messages.isEmpty());
+    final List<String> paths = new ArrayList<>();
+    for (final Message message : messages) {
+      paths.add(message.getPath());
+    }
+    Assert.assertEquals(paths.toString(), 0, paths.indexOf("r2.drl"));
+    Assert.assertTrue(paths.contains("r6.drl"));
+    Assert.assertEquals(messages, BuildMessages.sorted(kieBuilder.getResults().getMessages()));
+  }
+
+  @Test
+  public void filesAreTimedInTheirOrder() throws Exception {
+    final BaseModelTest.KieFile[] files = this.toKieFiles(BuildMessagesTest.drls(8));
+    final BuildTimings timings = BuildTimings.parse(files);
+    final List<String> paths = new ArrayList<>(timings.getParseNanos().keySet());
+    Assert.assertEquals(8, paths.size());
+    Assert.assertEquals("src/main/resources/r0.drl", paths.get(0));
+    Assert.assertEquals("src/main/resources/r7.drl", paths.get(7));
+    Assert.assertEquals(3, timings.slowest(3).size());
+    Assert.assertTrue(timings.getParseNanos().get(timings.slowest(1).get(0)) >= timings.getParseNanos().get(timings.slowest(3).get(2)));
+  }
+}
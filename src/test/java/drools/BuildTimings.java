@@ -0,0 +1,84 @@
+package drools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.compiler.DrlParser;
+import org.drools.compiler.compiler.DroolsParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Time spent on each DRL file of a build, to find the files slowing it down.
+ *
+ * The KieBuilder does not report its time per file: each file is parsed again apart, before the build, which costs
+ * about as much as the parse of the build itself. The build is timed as a whole.
+ */
+public class BuildTimings {
+  static final Logger LOG = LoggerFactory.getLogger(BuildTimings.class);
+
+  private final Map<String, Long> parseNanos = new LinkedHashMap<>();
+  private long buildNanos;
+
+  /**
+   * Parses each DRL file of the build, the other files being left out.
+   */
+  public static BuildTimings parse(final BaseModelTest.KieFile... files) {
+    final BuildTimings timings = new BuildTimings();
+    for (final BaseModelTest.KieFile file : files) {
+      if (!file.path.endsWith(".drl")) { continue; }
+      final long start = System.nanoTime();
+      try {
+        new DrlParser().parse(false, file.content);
+      } catch (final DroolsParserException e) {
+        // reported by the build
+      }
+      timings.parseNanos.put(file.path, System.nanoTime() - start);
+    }
+    return timings;
+  }
+
+  void setBuildNanos(final long buildNanos) {
+    this.buildNanos = buildNanos;
+  }
+
+  /**
+   * @return parse time of each DRL file, in nanoseconds, in the order of the build
+   */
+  public Map<String, Long> getParseNanos() {
+    return Collections.unmodifiableMap(this.parseNanos);
+  }
+
+  public long getBuild(final TimeUnit unit) {
+    return unit.convert(this.buildNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the <code>count</code> files slowest to parse, the slowest first
+   */
+  public List<String> slowest(final int count) {
+    final List<Map.Entry<String, Long>> entries = new ArrayList<>(this.parseNanos.entrySet());
+    entries.sort(Map.Entry.<String, Long> comparingByValue().reversed());
+    final List<String> slowest = new ArrayList<>();
+    for (final Map.Entry<String, Long> entry : entries.subList(0, Math.min(count, entries.size()))) {
+      slowest.add(entry.getKey());
+    }
+    return slowest;
+  }
+
+  public void log(final int count) {
+    BuildTimings.LOG.info("Built {} files in {} ms", this.parseNanos.size(), this.getBuild(TimeUnit.MILLISECONDS));
+    for (final String path : this.slowest(count)) {
+      BuildTimings.LOG.info("  {} parsed in {} us", path, TimeUnit.NANOSECONDS.toMicros(this.parseNanos.get(path)));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BuildTimings[files=" + this.parseNanos.size() + ", build=" + this.getBuild(TimeUnit.MILLISECONDS) + "ms, slowest=" + this.slowest(3) + "]";
+  }
+}
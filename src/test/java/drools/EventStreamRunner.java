@@ -0,0 +1,282 @@
+package drools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import org.drools.core.common.InternalFactHandle;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.EntryPoint;
+import org.kie.api.runtime.rule.FactHandle;
+import org.kie.api.time.SessionPseudoClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a STREAM session with a pseudo clock on a dedicated thread, feeding it with timestamped events pulled from a
+ * source.
+ *
+ * Events are inserted by batches of at most <code>batchSize</code>, then the clock is advanced once to the latest
+ * timestamp of the batch, <code>fireAllRules</code> is called and the expired events are deleted. Event types should
+ * declare their <code>@timestamp</code> so that they keep their own time within a batch.
+ *
+ * Every event is deleted <code>ttl</code> after its timestamp by a hashed timer wheel, in one pass per batch, instead of
+ * one expiration job per event as with <code>@expires</code>.
+ */
+public class EventStreamRunner implements AutoCloseable {
+  static final Logger LOG = LoggerFactory.getLogger(EventStreamRunner.class);
+
+  private final KieSession ksession;
+  private final EntryPoint entryPoint;
+  private final SessionPseudoClock clock;
+  private final Supplier<?> source;
+  private final ToLongFunction<Object> timestampOf;
+  private final long ttlMillis;
+  private final int batchSize;
+  private final TimerWheel wheel;
+  private final WorkingMemoryStatistics statistics;
+
+  private final Thread engineThread;
+  private volatile boolean running = true;
+  private volatile RuntimeException failure;
+
+  private final AtomicLong inserted = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+  private final AtomicLong fired = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private volatile long lagMillis;
+  private volatile long maxLagMillis;
+  private volatile int scheduledExpirations;
+
+  /**
+   * @param source returns the next event, <code>null</code> if none is available yet
+   * @param timestampOf the time of an event, in milliseconds, not decreasing along the source
+   * @param ttl how long an event stays in the session after its timestamp, 0 to keep it
+   * @param tickMillis resolution of the expiry, an event lives at most one tick more than its ttl
+   */
+  public EventStreamRunner(final KieSession ksession, final String entryPointName, final Supplier<?> source, final ToLongFunction<Object> timestampOf,
+      final long ttl, final TimeUnit unit, final int batchSize, final long tickMillis) {
+    if (!(ksession.getSessionClock() instanceof SessionPseudoClock)) {
+      throw new IllegalArgumentException("Expecting a session with a pseudo clock, got " + ksession.getSessionClock());
+    }
+    if (batchSize < 1 || tickMillis < 1) {
+      throw new IllegalArgumentException("Expecting positive batchSize and tickMillis, got " + batchSize + " and " + tickMillis);
+    }
+    this.ksession = ksession;
+    this.entryPoint = ksession.getEntryPoint(entryPointName);
+    if (this.entryPoint == null) {
+      throw new IllegalArgumentException("Unknown entry point " + entryPointName);
+    }
+    this.clock = ksession.getSessionClock();
+    this.source = source;
+    this.timestampOf = timestampOf;
+    this.ttlMillis = unit.toMillis(ttl);
+    this.batchSize = batchSize;
+    this.wheel = new TimerWheel(tickMillis, this.ttlMillis, this.clock.getCurrentTime());
+    this.statistics = WorkingMemoryStatistics.attach(ksession);
+    this.engineThread = new Thread(this::run, "stream-" + entryPointName);
+    this.engineThread.setDaemon(true);
+    this.engineThread.start();
+  }
+
+  private void run() {
+    try {
+      final List<Object> batch = new ArrayList<>(this.batchSize);
+      while (true) {
+        Object event = this.source.get();
+        if (event == null) {
+          if (!this.running) { break; }
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(this.wheel.tickMillis));
+          continue;
+        }
+        while (event != null) {
+          batch.add(event);
+          if (batch.size() == this.batchSize) { break; }
+          event = this.source.get();
+        }
+        this.process(batch);
+        batch.clear();
+      }
+    } catch (final RuntimeException e) {
+      EventStreamRunner.LOG.error("Engine thread failed, stopping stream", e);
+      this.failure = e;
+      this.running = false;
+    }
+  }
+
+  private void process(final List<Object> batch) {
+    long latest = this.clock.getCurrentTime();
+    for (final Object event : batch) {
+      final long timestamp = this.timestampOf.applyAsLong(event);
+      final FactHandle handle = this.entryPoint.insert(event);
+      if (this.ttlMillis > 0) {
+        this.wheel.schedule(handle, timestamp + this.ttlMillis);
+      }
+      latest = Math.max(latest, timestamp);
+    }
+    this.inserted.addAndGet(batch.size());
+
+    this.clock.advanceTime(latest - this.clock.getCurrentTime(), TimeUnit.MILLISECONDS);
+    this.fired.addAndGet(this.ksession.fireAllRules());
+    // after firing, so that every event of the batch is seen by the rules, the next batch fires on the deletions
+    this.expired.addAndGet(this.wheel.expire(latest, this.entryPoint));
+    this.scheduledExpirations = this.wheel.size();
+    this.batches.incrementAndGet();
+
+    final long lag = System.currentTimeMillis() - latest;
+    this.lagMillis = lag;
+    if (lag > this.maxLagMillis) {
+      this.maxLagMillis = lag;
+    }
+  }
+
+  /**
+   * Stops once the source has no more events, and waits for the last batch to be fired. The session is left without the
+   * listener counting its events, the retained events staying as counted last.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    this.running = false;
+    LockSupport.unpark(this.engineThread);
+    this.engineThread.join();
+    this.ksession.removeEventListener(this.statistics);
+    if (this.failure != null) { throw new IllegalStateException("Engine thread failed", this.failure); }
+  }
+
+  public long getInsertedCount() {
+    return this.inserted.get();
+  }
+
+  /**
+   * @return events deleted by the timer wheel
+   */
+  public long getExpiredCount() {
+    return this.expired.get();
+  }
+
+  /**
+   * @return the expiry backlog: events inserted and not deleted yet by the timer wheel
+   */
+  public int getScheduledExpirations() {
+    return this.scheduledExpirations;
+  }
+
+  public long getFiredCount() {
+    return this.fired.get();
+  }
+
+  public long getBatchCount() {
+    return this.batches.get();
+  }
+
+  /**
+   * Lags compare the wall clock with the latest event timestamp of a batch once fired: meaningful for live sources only,
+   * replayed ones are as late as they are old.
+   */
+  public long getEventLag(final TimeUnit unit) {
+    return unit.convert(this.lagMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public long getMaxEventLag(final TimeUnit unit) {
+    return unit.convert(this.maxLagMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return events held by the entry point, whichever rule or window retains them
+   */
+  public long getRetainedEvents() {
+    return this.statistics.getFactCount(this.entryPoint.getEntryPointId());
+  }
+
+  /**
+   * @see WorkingMemoryStatistics#getEstimatedBytes(ToLongFunction)
+   */
+  public long getRetainedBytes(final ToLongFunction<Class<?>> bytesPerFact) {
+    return this.statistics.getEstimatedBytes(bytesPerFact);
+  }
+
+  @Override
+  public String toString() {
+    return "EventStreamRunner[inserted=" + this.getInsertedCount() + ", expired=" + this.getExpiredCount() + ", retained=" + this.getRetainedEvents()
+        + ", scheduled=" + this.getScheduledExpirations() + ", fired=" + this.getFiredCount() + ", batches=" + this.getBatchCount() + ", lag=" + this.lagMillis
+        + "ms]";
+  }
+
+  /**
+   * Hashed timer wheel: one bucket per tick, <code>deadline / tick</code> modulo the number of buckets. A pass visits
+   * the buckets of the elapsed ticks only, and keeps the entries of a later revolution.
+   */
+  static class TimerWheel {
+    private final long tickMillis;
+    private final ArrayDeque<Expiration>[] buckets;
+    private final int mask;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(final long tickMillis, final long horizonMillis, final long now) {
+      this.tickMillis = tickMillis;
+      // enough buckets for the ttl to fit in one revolution
+      final int wanted = (int) Math.min(1 << 16, Math.max(16, horizonMillis / tickMillis + 1));
+      final int count = Integer.highestOneBit(wanted - 1) << 1;
+      this.buckets = new ArrayDeque[count];
+      for (int i = 0; i < count; i++) {
+        this.buckets[i] = new ArrayDeque<>();
+      }
+      this.mask = count - 1;
+      this.currentTick = now / tickMillis;
+    }
+
+    void schedule(final FactHandle handle, final long deadline) {
+      final long tick = Math.max(deadline / this.tickMillis, this.currentTick);
+      this.buckets[(int) (tick & this.mask)].add(new Expiration(handle, deadline));
+      this.size++;
+    }
+
+    /**
+     * Deletes the facts whose deadline is not after <code>now</code>.
+     *
+     * @return the number of facts deleted
+     */
+    int expire(final long now, final EntryPoint entryPoint) {
+      final long nowTick = now / this.tickMillis;
+      final long last = Math.min(nowTick, this.currentTick + this.mask);
+      int count = 0;
+      for (long tick = this.currentTick; tick <= last; tick++) {
+        final Iterator<Expiration> expirations = this.buckets[(int) (tick & this.mask)].iterator();
+        while (expirations.hasNext()) {
+          final Expiration expiration = expirations.next();
+          if (expiration.deadline > now) { continue; }
+          expirations.remove();
+          this.size--;
+          if (((InternalFactHandle) expiration.handle).isValid()) {
+            entryPoint.delete(expiration.handle);
+            count++;
+          }
+        }
+      }
+      this.currentTick = nowTick;
+      return count;
+    }
+
+    int size() {
+      return this.size;
+    }
+  }
+
+  private static class Expiration {
+    private final FactHandle handle;
+    private final long deadline;
+
+    Expiration(final FactHandle handle, final long deadline) {
+      this.handle = handle;
+      this.deadline = deadline;
+    }
+  }
+}
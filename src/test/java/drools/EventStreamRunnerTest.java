@@ -0,0 +1,90 @@
+package drools;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+public class EventStreamRunnerTest extends BaseModelTest {
+  private static final String DRL = "package org.drools.stream\n import " + Event.class.getCanonicalName() + ";\n"
+      + "declare Event\n @role(event)\n @timestamp(timestamp)\nend\n rule Hot when\n $e : Event( value > 90 )\n then\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public EventStreamRunnerTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  public static class Event {
+    private final long timestamp;
+    private final int value;
+
+    public Event(final long timestamp, final int value) {
+      this.timestamp = timestamp;
+      this.value = value;
+    }
+
+    public long getTimestamp() {
+      return this.timestamp;
+    }
+
+    public int getValue() {
+      return this.value;
+    }
+  }
+
+  @Test
+  public void eventsAreExpiredByTheTimerWheel() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(EventStreamRunnerTest.GROUP_ID, "test-stream", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.STREAM, releaseId, EventStreamRunnerTest.DRL);
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+
+    // one event per millisecond
+    final int eventCount = 50_000;
+    final AtomicInteger next = new AtomicInteger();
+    final EventStreamRunner runner = new EventStreamRunner(ksession, "DEFAULT", () -> {
+      final int i = next.get();
+      if (i == eventCount) { return null; }
+      next.incrementAndGet();
+      return new Event(i, i % 100);
+    }, event -> ((Event) event).getTimestamp(), 100, TimeUnit.MILLISECONDS, 500, 10);
+    runner.close();
+
+    Assert.assertEquals(eventCount, runner.getInsertedCount());
+    Assert.assertEquals(eventCount / 100 * 9, runner.getFiredCount());
+    Assert.assertEquals(eventCount - 1, ksession.getSessionClock().getCurrentTime());
+    // only the last ttl of events is left
+    Assert.assertTrue(runner.toString(), runner.getRetainedEvents() <= 101);
+    Assert.assertEquals(runner.getRetainedEvents(), ksession.getFactCount());
+    Assert.assertEquals(eventCount, runner.getExpiredCount() + runner.getRetainedEvents());
+    Assert.assertEquals(runner.getRetainedEvents(), runner.getScheduledExpirations());
+    Assert.assertFalse(ksession.getRuleRuntimeEventListeners().stream().anyMatch(WorkingMemoryStatistics.class::isInstance));
+    ksession.dispose();
+  }
+
+  @Test
+  public void timerWheelKeepsLaterRevolutions() {
+    final EventStreamRunner.TimerWheel wheel = new EventStreamRunner.TimerWheel(10, 100, 0);
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(EventStreamRunnerTest.GROUP_ID, "test-stream-wheel", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.STREAM, releaseId, EventStreamRunnerTest.DRL);
+    final KieSession ksession = ks.newKieContainer(releaseId).newKieSession();
+
+    // same bucket, one revolution apart
+    wheel.schedule(ksession.insert(new Event(0, 0)), 50);
+    wheel.schedule(ksession.insert(new Event(0, 1)), 50 + 16 * 10);
+    Assert.assertEquals(1, wheel.expire(100, ksession.getEntryPoint("DEFAULT")));
+    Assert.assertEquals(1, wheel.size());
+    Assert.assertEquals(1, wheel.expire(1000, ksession.getEntryPoint("DEFAULT")));
+    Assert.assertEquals(0, ksession.getFactCount());
+    ksession.dispose();
+  }
+}
@@ -0,0 +1,261 @@
+package drools;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.drools.compiler.compiler.io.memory.MemoryFileSystem;
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.drools.compiler.kproject.models.KieModuleModelImpl;
+import org.drools.core.util.DroolsStreamUtils;
+import org.drools.modelcompiler.CanonicalKieModule;
+import org.kie.api.KieBase;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.model.KieModuleModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import drools.BaseModelTest.KieFile;
+
+/**
+ * Content-addressed cache of built {@link InternalKieModule}s.
+ *
+ * The key is a SHA-256 of the project type, the kmodule XML, the pom and every {@link KieFile} path and content, so a module is only
+ * compiled once for a given input. Entries are the KJAR bytes, kept in memory for the <code>maxEntries</code> most
+ * recently used keys and, when a directory is given, also written there so they survive the JVM. A changed content has
+ * another key, so a KJAR built from a stale content is never returned. With a directory, the KieBases created from a
+ * module can also be stored serialized, so that a restarted process creates its first session without compiling.
+ *
+ * Every lookup returns a new module read from these bytes: <code>updateToVersion</code> and the containers keep state
+ * in the module they were given, which must not leak to the next test deploying the same content.
+ *
+ * The bytes do not hold the packages compiled by the build. A container of an executable model module loads its compiled
+ * classes, and a hit saves the whole build. A container of a DRL module compiles the rules again, and a hit only saves
+ * the verification of the KieBuilder: it is counted, but no build time is credited for it.
+ */
+public class KieModuleCache {
+  static final Logger LOG = LoggerFactory.getLogger(KieModuleCache.class);
+
+  private static final String JAR_SUFFIX = ".jar";
+  private static final String BUILD_TIME_SUFFIX = ".build";
+  private static final String KIE_BASE_SUFFIX = ".kbase";
+
+  /** default number of KJARs kept in memory */
+  public static final int DEFAULT_MAX_ENTRIES = 64;
+
+  private final Map<String, CachedModule> modules;
+  private final File directory;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong savedNanos = new AtomicLong();
+
+  public KieModuleCache() {
+    this(null);
+  }
+
+  public KieModuleCache(final File directory) {
+    this(directory, KieModuleCache.DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * @param directory where built KJARs are persisted, <code>null</code> to keep them in memory only
+   * @param maxEntries KJARs kept in memory, the least recently used ones are evicted first
+   */
+  public KieModuleCache(final File directory, final int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("Expecting a positive number of entries, got " + maxEntries);
+    }
+    this.modules = Collections.synchronizedMap(new LinkedHashMap<String, CachedModule>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, CachedModule> eldest) {
+        return this.size() > maxEntries;
+      }
+    });
+    this.directory = directory;
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create KJAR cache directory " + directory);
+    }
+  }
+
+  public static String computeKey(final Class<? extends KieBuilder.ProjectType> projectClass, final String kmoduleXml, final String pom, final KieFile... files) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    KieModuleCache.update(digest, projectClass.getName());
+    KieModuleCache.update(digest, kmoduleXml);
+    KieModuleCache.update(digest, pom);
+    for (final KieFile file : files) {
+      KieModuleCache.update(digest, file.path);
+      KieModuleCache.update(digest, file.content);
+    }
+
+    final StringBuilder key = new StringBuilder();
+    for (final byte b : digest.digest()) {
+      key.append(String.format("%02x", b));
+    }
+    return key.toString();
+  }
+
+  private static void update(final MessageDigest digest, final String value) {
+    if (value == null) {
+      digest.update((byte) 0);
+      return;
+    }
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    // length prefix, so that ("ab", "c") and ("a", "bc") do not collide
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  /**
+   * @return a new module read from the KJAR built for this key, from memory or disk, or <code>null</code> if it has to be
+   *         built
+   */
+  public InternalKieModule get(final ReleaseId releaseId, final String key) {
+    CachedModule cached = this.modules.get(key);
+    if (cached == null) {
+      cached = this.load(releaseId, key);
+    }
+    if (cached == null) {
+      this.misses.incrementAndGet();
+      return null;
+    }
+    this.hits.incrementAndGet();
+    final InternalKieModule module = KieModuleCache.read(releaseId, cached.bytes);
+    if (module instanceof CanonicalKieModule) {
+      this.savedNanos.addAndGet(cached.buildNanos);
+    }
+    return module;
+  }
+
+  /**
+   * @return a module of these KJAR bytes, of the executable model if they contain one
+   */
+  static InternalKieModule read(final ReleaseId releaseId, final byte[] bytes) {
+    final MemoryFileSystem mfs = MemoryFileSystem.readFromJar(bytes);
+    final KieModuleModel kieModuleModel = KieModuleModelImpl.fromXML(new ByteArrayInputStream(mfs.getBytes(KieModuleModelImpl.KMODULE_JAR_PATH)));
+    final MemoryKieModule module = new MemoryKieModule(releaseId, kieModuleModel, mfs);
+    return mfs.existsFile(CanonicalKieModule.getModelFileWithGAV(releaseId)) ? new CanonicalKieModule(module) : module;
+  }
+
+  public void put(final String key, final InternalKieModule module, final long buildNanos) {
+    final byte[] bytes = module.getBytes();
+    this.modules.put(key, new CachedModule(bytes, buildNanos));
+    if (this.directory != null) {
+      try {
+        Files.write(new File(this.directory, key + KieModuleCache.JAR_SUFFIX).toPath(), bytes);
+        Files.write(new File(this.directory, key + KieModuleCache.BUILD_TIME_SUFFIX).toPath(), Long.toString(buildNanos).getBytes(StandardCharsets.UTF_8));
+      } catch (final IOException e) {
+        KieModuleCache.LOG.warn("Cannot persist KJAR " + key + " in " + this.directory, e);
+      }
+    }
+  }
+
+  /**
+   * Stores a KieBase created from the module {@link #put} for this key. Only KieBases built from DRL without alpha
+   * network compiler are serializable: the executable model has lambda consequences, and the compiled alpha networks
+   * are classes defined in memory.
+   */
+  public void putKieBase(final String key, final String kieBaseName, final KieBase kieBase) throws IOException {
+    if (this.directory == null) {
+      throw new IllegalStateException("KieBases are only stored on disk, no directory given");
+    }
+    if (!new File(this.directory, key + KieModuleCache.JAR_SUFFIX).isFile()) {
+      throw new IllegalStateException("No KJAR stored for key " + key);
+    }
+    try (OutputStream out = new FileOutputStream(this.kieBaseFile(key, kieBaseName))) {
+      DroolsStreamUtils.streamOut(out, kieBase);
+    }
+  }
+
+  /**
+   * @return the KieBase stored for this key, ready for <code>newKieSession</code>, or <code>null</code> if there is none
+   */
+  public KieBase getKieBase(final String key, final String kieBaseName, final ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    if (this.directory == null) { return null; }
+    final File file = this.kieBaseFile(key, kieBaseName);
+    if (!file.isFile()) { return null; }
+    return (KieBase) DroolsStreamUtils.streamIn(Files.readAllBytes(file.toPath()), classLoader);
+  }
+
+  private File kieBaseFile(final String key, final String kieBaseName) {
+    return new File(this.directory, key + "." + kieBaseName + KieModuleCache.KIE_BASE_SUFFIX);
+  }
+
+  private CachedModule load(final ReleaseId releaseId, final String key) {
+    if (this.directory == null) { return null; }
+    final File jar = new File(this.directory, key + KieModuleCache.JAR_SUFFIX);
+    if (!jar.isFile()) { return null; }
+
+    final byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(jar.toPath());
+    } catch (final IOException e) {
+      KieModuleCache.LOG.warn("Cannot read KJAR " + key + " from " + this.directory, e);
+      return null;
+    }
+    long buildNanos = 0;
+    try {
+      buildNanos = Long.parseLong(new String(Files.readAllBytes(new File(this.directory, key + KieModuleCache.BUILD_TIME_SUFFIX).toPath()), StandardCharsets.UTF_8).trim());
+    } catch (final IOException | NumberFormatException e) {
+      KieModuleCache.LOG.warn("No build time recorded for KJAR " + key);
+    }
+    final CachedModule cached = new CachedModule(bytes, buildNanos);
+    this.modules.put(key, cached);
+    return cached;
+  }
+
+  public long getHitCount() {
+    return this.hits.get();
+  }
+
+  public long getMissCount() {
+    return this.misses.get();
+  }
+
+  /**
+   * @return build time of the executable model modules returned, the ones of DRL modules being compiled again
+   */
+  public long getBuildTimeSavedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(this.savedNanos.get());
+  }
+
+  public void clear() {
+    this.modules.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "KieModuleCache[hits=" + this.getHitCount() + ", misses=" + this.getMissCount() + ", saved=" + this.getBuildTimeSavedMillis() + "ms]";
+  }
+
+  private static class CachedModule {
+    private final byte[] bytes;
+    private final long buildNanos;
+
+    CachedModule(final byte[] bytes, final long buildNanos) {
+      this.bytes = bytes;
+      this.buildNanos = buildNanos;
+    }
+  }
+}
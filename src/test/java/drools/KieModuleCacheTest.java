@@ -0,0 +1,141 @@
+package drools;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+public class KieModuleCacheTest extends BaseModelTest {
+  private static final String DRL = "package org.drools.cache\n rule R1 when\n $s : String( this.startsWith(\"H\") )\n then\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public KieModuleCacheTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void sameContentIsBuiltOnce() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(KieModuleCacheTest.GROUP_ID, "test-cache", "1.0.0");
+
+    final long misses = BaseModelTest.KIE_MODULE_CACHE.getMissCount();
+    final long hits = BaseModelTest.KIE_MODULE_CACHE.getHitCount();
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, KieModuleCacheTest.DRL);
+    final InternalKieModule built = (InternalKieModule) ks.getRepository().getKieModule(releaseId);
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, KieModuleCacheTest.DRL);
+
+    Assert.assertEquals(misses + 1, BaseModelTest.KIE_MODULE_CACHE.getMissCount());
+    Assert.assertEquals(hits + 1, BaseModelTest.KIE_MODULE_CACHE.getHitCount());
+    // a copy, so that the state of the first deployment does not leak to the second one
+    final InternalKieModule cached = (InternalKieModule) ks.getRepository().getKieModule(releaseId);
+    Assert.assertNotSame(built, cached);
+    Assert.assertEquals(built.getClass(), cached.getClass());
+    Assert.assertEquals(releaseId, cached.getReleaseId());
+
+    // a different content is a different module
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, KieModuleCacheTest.DRL.replace("\"H\"", "\"W\""));
+    Assert.assertEquals(misses + 2, BaseModelTest.KIE_MODULE_CACHE.getMissCount());
+    Assert.assertNotSame(built, ks.getRepository().getKieModule(releaseId));
+  }
+
+  @Test
+  public void modulesAreReloadedFromDisk() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(KieModuleCacheTest.GROUP_ID, "test-cache-disk", "1.0.0");
+    final File directory = Files.createTempDirectory("kjar-cache").toFile();
+
+    final KieFile[] files = this.toKieFiles(new String[] { KieModuleCacheTest.DRL });
+    final String key = KieModuleCache.computeKey(this.getProjectClass(), this.getKModuleXML(ks, null, EventProcessingOption.CLOUD), KJARUtils.getPom(releaseId), files);
+    final InternalKieModule built = (InternalKieModule) this.createKieBuilder(ks, null, EventProcessingOption.CLOUD, releaseId, files).getKieModule();
+    new KieModuleCache(directory).put(key, built, 1_000_000_000L);
+
+    // a new cache, as after a restart
+    final KieModuleCache cache = new KieModuleCache(directory);
+    final InternalKieModule loaded = cache.get(releaseId, key);
+    Assert.assertNotNull(loaded);
+    Assert.assertEquals(1, cache.getHitCount());
+    // the container compiles DRL again
+    Assert.assertEquals(this.testRunType.isExecutableModel() ? 1000 : 0, cache.getBuildTimeSavedMillis());
+
+    ks.getRepository().addKieModule(loaded);
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+    ksession.insert("Hello World");
+    Assert.assertEquals(1, ksession.fireAllRules());
+    ksession.dispose();
+  }
+
+  @Test
+  public void changedContentIsNotReloaded() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(KieModuleCacheTest.GROUP_ID, "test-cache-stale", "1.0.0");
+    final File directory = Files.createTempDirectory("kjar-cache").toFile();
+
+    final KieFile[] files = this.toKieFiles(new String[] { KieModuleCacheTest.DRL });
+    final String kmoduleXml = this.getKModuleXML(ks, null, EventProcessingOption.CLOUD);
+    final String key = KieModuleCache.computeKey(this.getProjectClass(), kmoduleXml, KJARUtils.getPom(releaseId), files);
+    final InternalKieModule built = (InternalKieModule) this.createKieBuilder(ks, null, EventProcessingOption.CLOUD, releaseId, files).getKieModule();
+    new KieModuleCache(directory).put(key, built, 0);
+
+    final KieFile[] changed = this.toKieFiles(new String[] { KieModuleCacheTest.DRL.replace("\"H\"", "\"W\"") });
+    final KieModuleCache cache = new KieModuleCache(directory);
+    Assert.assertNull(cache.get(releaseId, KieModuleCache.computeKey(this.getProjectClass(), kmoduleXml, KJARUtils.getPom(releaseId), changed)));
+    Assert.assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void kieBasesAreReloadedFromDisk() throws Exception {
+    // lambda consequences and in-memory compiled alpha networks are not serializable
+    Assume.assumeTrue(this.testRunType == RUN_TYPE.STANDARD_FROM_DRL);
+
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(KieModuleCacheTest.GROUP_ID, "test-cache-kbase", "1.0.0");
+    final File directory = Files.createTempDirectory("kjar-cache").toFile();
+
+    final KieFile[] files = this.toKieFiles(new String[] { KieModuleCacheTest.DRL });
+    final String key = KieModuleCache.computeKey(this.getProjectClass(), this.getKModuleXML(ks, null, EventProcessingOption.CLOUD), KJARUtils.getPom(releaseId), files);
+    final InternalKieModule built = (InternalKieModule) this.createKieBuilder(ks, null, EventProcessingOption.CLOUD, releaseId, files).getKieModule();
+    ks.getRepository().addKieModule(built);
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieModuleCache cache = new KieModuleCache(directory);
+    cache.put(key, built, 0);
+    cache.putKieBase(key, "KBase", kc.getKieBase());
+    kc.dispose();
+
+    // a new cache, as after a restart
+    final KieBase kbase = new KieModuleCache(directory).getKieBase(key, "KBase", this.getClass().getClassLoader());
+    Assert.assertNotNull(kbase);
+    final KieSession ksession = kbase.newKieSession();
+    ksession.insert("Hello World");
+    Assert.assertEquals(1, ksession.fireAllRules());
+    ksession.dispose();
+  }
+
+  @Test
+  public void leastRecentlyUsedModulesAreEvicted() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(KieModuleCacheTest.GROUP_ID, "test-cache-evict", "1.0.0");
+    final KieFile[] files = this.toKieFiles(new String[] { KieModuleCacheTest.DRL });
+    final InternalKieModule built = (InternalKieModule) this.createKieBuilder(ks, null, EventProcessingOption.CLOUD, releaseId, files).getKieModule();
+
+    final KieModuleCache cache = new KieModuleCache(null, 2);
+    cache.put("a", built, 0);
+    cache.put("b", built, 0);
+    Assert.assertNotNull(cache.get(releaseId, "a"));
+    cache.put("c", built, 0);
+
+    Assert.assertNull(cache.get(releaseId, "b"));
+    Assert.assertNotNull(cache.get(releaseId, "a"));
+    Assert.assertNotNull(cache.get(releaseId, "c"));
+  }
+}
@@ -0,0 +1,173 @@
+package drools;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.drools.compiler.compiler.DrlParser;
+import org.drools.compiler.compiler.DroolsParserException;
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.compiler.kie.util.ChangeSetBuilder;
+import org.drools.compiler.kie.util.KieJarChangeSet;
+import org.drools.compiler.lang.descr.PackageDescr;
+import org.drools.compiler.lang.descr.TypeDeclarationDescr;
+import org.drools.modelcompiler.CanonicalKieModule;
+import org.kie.internal.builder.ResourceChange;
+import org.kie.internal.builder.ResourceChangeSet;
+
+/**
+ * Rules, functions and declared types that differ between two built modules, as computed by the
+ * {@link ChangeSetBuilder} that {@link org.kie.api.runtime.KieContainer#updateToVersion} itself relies on.
+ */
+public class KieModuleDelta {
+  private final KieJarChangeSet changeSet;
+  /** the executable model generates new classes for every type of a module, changed or not */
+  private final boolean executableModel;
+  private final Set<String> rules = new TreeSet<>();
+  /** package and name of the changed rules of DRL files, the name only for the other files */
+  private final Set<String> qualifiedRules = new HashSet<>();
+  private final Set<String> unqualifiedRules = new HashSet<>();
+  private final Set<String> functions = new TreeSet<>();
+  private final Set<String> types = new TreeSet<>();
+  private final Set<String> files = new TreeSet<>();
+
+  private KieModuleDelta(final InternalKieModule oldModule, final InternalKieModule newModule, final KieJarChangeSet changeSet,
+                         final boolean executableModel) {
+    this.changeSet = changeSet;
+    this.executableModel = executableModel;
+    for (final Map.Entry<String, ResourceChangeSet> entry : changeSet.getChanges().entrySet()) {
+      this.files.add(entry.getKey());
+      final boolean drl = entry.getKey().endsWith(".drl");
+      final String oldSource = drl ? KieModuleDelta.source(oldModule.getBytes(entry.getKey())) : null;
+      final String newSource = drl ? KieModuleDelta.source(newModule.getBytes(entry.getKey())) : null;
+      final PackageDescr before = KieModuleDelta.parse(oldSource);
+      final PackageDescr after = KieModuleDelta.parse(newSource);
+      final String packageName = after != null ? after.getName() : before != null ? before.getName() : null;
+      for (final ResourceChange change : entry.getValue().getChanges()) {
+        switch (change.getType()) {
+          case RULE:
+            this.rules.add(change.getName());
+            if (packageName == null) {
+              this.unqualifiedRules.add(change.getName());
+            } else {
+              this.qualifiedRules.add(packageName + "." + change.getName());
+            }
+            break;
+          case FUNCTION:
+            this.functions.add(change.getName());
+            break;
+          case DECLARATION:
+            this.types.add(change.getName());
+            break;
+          default:
+            break;
+        }
+      }
+      if (drl) {
+        this.addRedeclaredTypes(KieModuleDelta.declarations(before, oldSource), KieModuleDelta.declarations(after, newSource));
+      }
+    }
+  }
+
+  /**
+   * The change set does not report declarations. Once any declaration of a file changes, drools declares again every
+   * type of the file, under new classes.
+   */
+  private void addRedeclaredTypes(final Map<String, String> before, final Map<String, String> after) {
+    if (!before.equals(after)) {
+      this.types.addAll(before.keySet());
+      this.types.addAll(after.keySet());
+    }
+  }
+
+  private static String source(final byte[] drl) {
+    return drl == null ? null : new String(drl, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the file parsed, <code>null</code> if it does not exist
+   */
+  private static PackageDescr parse(final String source) {
+    if (source == null) { return null; }
+    try {
+      return new DrlParser().parse(false, source);
+    } catch (final DroolsParserException e) {
+      throw new IllegalArgumentException("Cannot parse " + source, e);
+    }
+  }
+
+  /**
+   * @return the source of each type declared by the file, by full type name
+   */
+  private static Map<String, String> declarations(final PackageDescr packageDescr, final String source) {
+    final Map<String, String> declarations = new HashMap<>();
+    if (packageDescr == null) { return declarations; }
+    for (final TypeDeclarationDescr descr : packageDescr.getTypeDeclarations()) {
+      final String namespace = descr.getNamespace() == null || descr.getNamespace().isEmpty() ? packageDescr.getName() : descr.getNamespace();
+      declarations.put(namespace + "." + descr.getTypeName(), source.substring(descr.getStartCharacter(), descr.getEndCharacter()));
+    }
+    return declarations;
+  }
+
+  public static KieModuleDelta between(final InternalKieModule oldModule, final InternalKieModule newModule) {
+    return new KieModuleDelta(oldModule, newModule, ChangeSetBuilder.build(oldModule, newModule), newModule instanceof CanonicalKieModule);
+  }
+
+  public boolean isEmpty() {
+    return this.files.isEmpty();
+  }
+
+  public KieJarChangeSet getChangeSet() {
+    return this.changeSet;
+  }
+
+  /**
+   * @return names of the rules added, removed or modified, without their package
+   */
+  public Set<String> getChangedRules() {
+    return Collections.unmodifiableSet(this.rules);
+  }
+
+  /**
+   * @return whether the rule of this package was added, removed or modified, rules of other resources than DRL files
+   *         being matched by name only
+   */
+  public boolean isChangedRule(final String packageName, final String ruleName) {
+    return this.qualifiedRules.contains(packageName + "." + ruleName) || this.unqualifiedRules.contains(ruleName);
+  }
+
+  public Set<String> getChangedFunctions() {
+    return Collections.unmodifiableSet(this.functions);
+  }
+
+  /**
+   * @return full names of the declared types the update declares again, added or removed
+   */
+  public Set<String> getChangedTypes() {
+    return Collections.unmodifiableSet(this.types);
+  }
+
+  /**
+   * @param typeName full name of a declared type
+   * @return whether updating to the new module replaces the class of the type: when its declaration changed, or for
+   *         any change of an executable model
+   */
+  public boolean redeclares(final String typeName) {
+    if (this.isEmpty()) { return false; }
+    if (this.executableModel) { return true; }
+    return this.types.contains(typeName);
+  }
+
+  public Set<String> getChangedFiles() {
+    return Collections.unmodifiableSet(this.files);
+  }
+
+  @Override
+  public String toString() {
+    return "KieModuleDelta[rules=" + this.rules + ", functions=" + this.functions + ", types=" + this.types + "]";
+  }
+}
@@ -0,0 +1,20 @@
+package drools;
+
+import java.io.Serializable;
+
+/**
+ * Fact shared by the tests and benchmarks, matched by rules such as <code>Message( value.startsWith("H") )</code>.
+ */
+public class Message implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final String value;
+
+  public Message(final String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return this.value;
+  }
+}
@@ -0,0 +1,143 @@
+package drools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.Results;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.FactHandle;
+
+/**
+ * N sessions of the same {@link KieContainer}, each fact going to the partition of its key. Partitions are fired in
+ * parallel, which is only correct for rule sets that never join facts of different keys.
+ *
+ * Every partition is guarded by its own lock: inserts into different partitions and the firing of different partitions
+ * run concurrently, {@link #updateToVersion(ReleaseId)} holds them all.
+ */
+public class PartitionedKieSessions implements AutoCloseable {
+  private final KieContainer kc;
+  private final Function<Object, ?> keyFunction;
+  private final KieSession[] sessions;
+  private final ReentrantLock[] locks;
+  private final ForkJoinPool pool;
+
+  /**
+   * @param keyFunction the partition key of a fact, facts of the same key always being in the same session
+   */
+  public PartitionedKieSessions(final KieContainer kc, final int partitions, final Function<Object, ?> keyFunction) {
+    if (partitions < 1) {
+      throw new IllegalArgumentException("Expecting at least one partition, got " + partitions);
+    }
+    this.kc = kc;
+    this.keyFunction = keyFunction;
+    this.sessions = new KieSession[partitions];
+    this.locks = new ReentrantLock[partitions];
+    for (int i = 0; i < partitions; i++) {
+      this.sessions[i] = kc.newKieSession();
+      this.locks[i] = new ReentrantLock();
+    }
+    this.pool = new ForkJoinPool(partitions);
+  }
+
+  /**
+   * One partition per available core.
+   */
+  public PartitionedKieSessions(final KieContainer kc, final Function<Object, ?> keyFunction) {
+    this(kc, Runtime.getRuntime().availableProcessors(), keyFunction);
+  }
+
+  public int partitionOf(final Object fact) {
+    final Object key = this.keyFunction.apply(fact);
+    return key == null ? 0 : Math.floorMod(key.hashCode(), this.sessions.length);
+  }
+
+  public FactHandle insert(final Object fact) {
+    final int partition = this.partitionOf(fact);
+    this.locks[partition].lock();
+    try {
+      return this.sessions[partition].insert(fact);
+    } finally {
+      this.locks[partition].unlock();
+    }
+  }
+
+  /**
+   * Fires all partitions in parallel.
+   *
+   * @return the total number of rules fired
+   */
+  public int fireAllRules() {
+    final List<Future<Integer>> results = new ArrayList<>(this.sessions.length);
+    for (int i = 0; i < this.sessions.length; i++) {
+      final int partition = i;
+      results.add(this.pool.submit(() -> {
+        this.locks[partition].lock();
+        try {
+          return this.sessions[partition].fireAllRules();
+        } finally {
+          this.locks[partition].unlock();
+        }
+      }));
+    }
+
+    int fired = 0;
+    for (final Future<Integer> result : results) {
+      try {
+        fired += result.get();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while firing partitions", e);
+      } catch (final ExecutionException e) {
+        throw new IllegalStateException("Partition failed to fire", e.getCause());
+      }
+    }
+    return fired;
+  }
+
+  /**
+   * Updates the container, and so all the partitions, while none of them is inserting or firing.
+   */
+  public Results updateToVersion(final ReleaseId releaseId) {
+    for (final ReentrantLock lock : this.locks) {
+      lock.lock();
+    }
+    try {
+      return this.kc.updateToVersion(releaseId);
+    } finally {
+      for (final ReentrantLock lock : this.locks) {
+        lock.unlock();
+      }
+    }
+  }
+
+  public int getPartitionCount() {
+    return this.sessions.length;
+  }
+
+  public KieSession getSession(final int partition) {
+    return this.sessions[partition];
+  }
+
+  public long getFactCount() {
+    long count = 0;
+    for (final KieSession ksession : this.sessions) {
+      count += ksession.getFactCount();
+    }
+    return count;
+  }
+
+  @Override
+  public void close() {
+    this.pool.shutdown();
+    for (final KieSession ksession : this.sessions) {
+      ksession.dispose();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package drools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+
+public class PartitionedKieSessionsTest extends BaseModelTest {
+  private static final String DRL1 = "package org.drools.partition\n rule R1 when\n $s : String( this.startsWith(\"H\") )\n then\n end\n";
+  private static final String DRL2 = "package org.drools.partition\n rule R2 when\n $s : String( this == \"Hello World\" )\n then\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public PartitionedKieSessionsTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void partitionsAreFiredAndUpdatedTogether() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(PartitionedKieSessionsTest.GROUP_ID, "test-partition", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, PartitionedKieSessionsTest.DRL1);
+
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    try (PartitionedKieSessions sessions = new PartitionedKieSessions(kc, 4, fact -> fact)) {
+      // distinct instances, the KieBase comparing facts by identity
+      for (int i = 0; i < 1000; i++) {
+        sessions.insert(i % 2 == 0 ? new String("Hello World") : "Hi " + i);
+      }
+      for (int i = 0; i < 4; i++) {
+        Assert.assertTrue("partition " + i + " is empty", sessions.getSession(i).getFactCount() > 0);
+      }
+      Assert.assertEquals(1000, sessions.getFactCount());
+      Assert.assertEquals(1000, sessions.fireAllRules());
+
+      // same keys, same partition
+      Assert.assertEquals(sessions.partitionOf("Hello World"), sessions.partitionOf(new String("Hello World")));
+
+      final ReleaseId releaseId2 = ks.newReleaseId(PartitionedKieSessionsTest.GROUP_ID, "test-partition", "1.1.0");
+      this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, PartitionedKieSessionsTest.DRL1, PartitionedKieSessionsTest.DRL2);
+      Assert.assertTrue(sessions.updateToVersion(releaseId2).getMessages().isEmpty());
+      Assert.assertEquals("R2 on every Hello World of every partition", 500, sessions.fireAllRules());
+    }
+  }
+}
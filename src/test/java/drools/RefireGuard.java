@@ -0,0 +1,253 @@
+package drools;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.drools.core.common.InternalFactHandle;
+import org.kie.api.KieBase;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.AgendaFilter;
+import org.kie.api.runtime.rule.EntryPoint;
+import org.kie.api.runtime.rule.FactHandle;
+import org.kie.api.runtime.rule.Match;
+
+/**
+ * Filters out, during the first firing after an upgrade, the matches that already fired before it and that the upgrade
+ * recreated by rebuilding rules that did not change. It does not make the update itself incremental: drools still
+ * rebuilds what it rebuilds, the guard only keeps the recreated matches from firing a second time.
+ *
+ * A match is identified by the package and name of its rule and by the fact handles of its tuple, a match without
+ * handles (as <code>not X()</code>) by its rule only. Fired matches are recorded while the guard is attached, and
+ * forgotten when one of their facts is updated or deleted, so a modified fact fires again as usual.
+ *
+ * For each upgrade: {@link #expect(KieModuleDelta)} before <code>updateToVersion</code>, then
+ * {@link #fireAllRules(KieSession)}. Only that firing is filtered. The fired matches are kept from one upgrade to the
+ * next, the executable model rebuilding every rule on each of them; the ones of the rules the new KieBase no longer has
+ * are dropped after the firing. A match without handles is only forgotten with its rule.
+ */
+public class RefireGuard extends DefaultAgendaEventListener implements RuleRuntimeEventListener, AgendaFilter {
+  private final Set<MatchKey> fired = new HashSet<>();
+  private final Map<FactHandle, Set<MatchKey>> byHandle = new IdentityHashMap<>();
+  /** whether the current firing ends an upgrade */
+  private boolean upgrading;
+  private boolean expecting;
+  private long suppressed;
+
+  public RefireGuard attach(final KieSession ksession) {
+    ksession.addEventListener((AgendaEventListener) this);
+    ksession.addEventListener((RuleRuntimeEventListener) this);
+    return this;
+  }
+
+  public void detach(final KieSession ksession) {
+    ksession.removeEventListener((AgendaEventListener) this);
+    ksession.removeEventListener((RuleRuntimeEventListener) this);
+  }
+
+  /**
+   * To be called before <code>updateToVersion</code>: the changed rules are new rules, their former matches must not
+   * prevent them from firing. The next {@link #fireAllRules(KieSession)} is filtered. The change set names the changed
+   * rules without their package: the matches of the rules of that name in every package are forgotten.
+   */
+  public synchronized void expect(final KieModuleDelta delta) {
+    final Set<String> changedRules = delta.getChangedRules();
+    final List<MatchKey> changed = new ArrayList<>();
+    for (final MatchKey key : this.fired) {
+      if (changedRules.contains(key.rule)) {
+        changed.add(key);
+      }
+    }
+    changed.forEach(this::remove);
+    this.expecting = true;
+  }
+
+  /**
+   * Moves the recorded matches to the handles of the same facts, in the same entry points, of <code>to</code>, for an
+   * upgrade copying the facts to a new session. Matches of facts not copied are forgotten, as well as matches without
+   * handles: they do not tell whether the facts that made them fire were copied.
+   */
+  public synchronized void moveTo(final KieSession to) {
+    final Map<FactHandle, FactHandle> handles = new IdentityHashMap<>();
+    for (final FactHandle handle : this.byHandle.keySet()) {
+      final InternalFactHandle internal = (InternalFactHandle) handle;
+      final EntryPoint entryPoint = to.getEntryPoint(internal.getEntryPointName());
+      final FactHandle moved = entryPoint == null ? null : entryPoint.getFactHandle(internal.getObject());
+      if (moved != null) {
+        handles.put(handle, moved);
+      }
+    }
+
+    final List<MatchKey> keys = new ArrayList<>(this.fired);
+    this.fired.clear();
+    this.byHandle.clear();
+    for (final MatchKey key : keys) {
+      if (key.handles.length == 0) { continue; }
+      final FactHandle[] moved = new FactHandle[key.handles.length];
+      boolean copied = true;
+      for (int i = 0; i < moved.length && copied; i++) {
+        moved[i] = handles.get(key.handles[i]);
+        copied = moved[i] != null;
+      }
+      if (copied) {
+        this.add(new MatchKey(key.packageName, key.rule, moved));
+      }
+    }
+  }
+
+  /**
+   * Fires the rules of the session, filtering the recreated matches if an upgrade is {@link #expect expected}, in which
+   * case the matches of the rules the KieBase no longer has are dropped afterwards.
+   */
+  public int fireAllRules(final KieSession ksession) {
+    synchronized (this) {
+      this.upgrading = this.expecting;
+      this.expecting = false;
+    }
+    try {
+      return ksession.fireAllRules(this);
+    } finally {
+      synchronized (this) {
+        if (this.upgrading) {
+          this.upgrading = false;
+          this.retainRulesOf(ksession.getKieBase());
+        }
+      }
+    }
+  }
+
+  private void retainRulesOf(final KieBase kbase) {
+    final List<MatchKey> removed = new ArrayList<>();
+    for (final MatchKey key : this.fired) {
+      if (kbase.getRule(key.packageName, key.rule) == null) {
+        removed.add(key);
+      }
+    }
+    removed.forEach(this::remove);
+  }
+
+  @Override
+  public synchronized boolean accept(final Match match) {
+    if (!this.upgrading) { return true; }
+    if (this.fired.contains(new MatchKey(match))) {
+      this.suppressed++;
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized void afterMatchFired(final AfterMatchFiredEvent event) {
+    this.add(new MatchKey(event.getMatch()));
+  }
+
+  @Override
+  public void objectInserted(final ObjectInsertedEvent event) {
+    // a new fact cannot be part of a previous match
+  }
+
+  @Override
+  public void objectUpdated(final ObjectUpdatedEvent event) {
+    this.forget(event.getFactHandle());
+  }
+
+  @Override
+  public void objectDeleted(final ObjectDeletedEvent event) {
+    this.forget(event.getFactHandle());
+  }
+
+  private synchronized void forget(final FactHandle handle) {
+    final Set<MatchKey> keys = this.byHandle.get(handle);
+    if (keys != null) {
+      new ArrayList<>(keys).forEach(this::remove);
+    }
+  }
+
+  private void add(final MatchKey key) {
+    if (this.fired.add(key)) {
+      for (final FactHandle handle : key.handles) {
+        this.byHandle.computeIfAbsent(handle, h -> new HashSet<>()).add(key);
+      }
+    }
+  }
+
+  private void remove(final MatchKey key) {
+    if (!this.fired.remove(key)) { return; }
+    for (final FactHandle handle : key.handles) {
+      final Set<MatchKey> keys = this.byHandle.get(handle);
+      if (keys != null && keys.remove(key) && keys.isEmpty()) {
+        this.byHandle.remove(handle);
+      }
+    }
+  }
+
+  /**
+   * @return the number of matches that were filtered out because they already fired
+   */
+  public synchronized long getSuppressedCount() {
+    return this.suppressed;
+  }
+
+  public synchronized int size() {
+    return this.fired.size();
+  }
+
+  /**
+   * @return the fact handles some recorded match refers to
+   */
+  synchronized int getHandleCount() {
+    return this.byHandle.size();
+  }
+
+  /**
+   * Package and name of the rule, and fact handles of the tuple, compared by identity.
+   */
+  private static class MatchKey {
+    private final String packageName;
+    private final String rule;
+    private final FactHandle[] handles;
+    private final int hash;
+
+    MatchKey(final Match match) {
+      this(match.getRule().getPackageName(), match.getRule().getName(), match.getFactHandles().toArray(new FactHandle[0]));
+    }
+
+    MatchKey(final String packageName, final String rule, final FactHandle[] handles) {
+      this.packageName = packageName;
+      this.rule = rule;
+      this.handles = handles;
+      int h = 31 * packageName.hashCode() + rule.hashCode();
+      for (final FactHandle handle : handles) {
+        h = 31 * h + System.identityHashCode(handle);
+      }
+      this.hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) { return true; }
+      if (!(obj instanceof MatchKey)) { return false; }
+      final MatchKey other = (MatchKey) obj;
+      if (!this.rule.equals(other.rule) || !this.packageName.equals(other.packageName) || this.handles.length != other.handles.length) { return false; }
+      for (int i = 0; i < this.handles.length; i++) {
+        if (this.handles[i] != other.handles[i]) { return false; }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package drools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.FactHandle;
+
+public class RefireGuardTest extends BaseModelTest {
+  private static final String DRL = "package org.drools.refire\n import " + Message.class.getCanonicalName() + ";\n"
+      + "declare Token end\n"
+      + "rule Init when\n not Token()\nthen\n insert(new Token());\nend\n"
+      + "rule R1 when\n $m : Message( value.startsWith(\"H\") )\nthen\nend\n";
+  private static final String FUNCTION_1 = "function String format(String value) { return value + \" 1\"; }\n";
+  private static final String FUNCTION_2 = "function String format(String value) { return value + \" 2\"; }\n";
+  private static final String DRL_R2 = "package org.drools.refire\n import " + Message.class.getCanonicalName() + ";\n"
+      + "rule R2 when\n $m : Message( value == \"Hi\" )\nthen\nend\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public RefireGuardTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void onlyTheFiringAfterAnUpgradeIsFiltered() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(RefireGuardTest.GROUP_ID, "test-refire", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, RefireGuardTest.DRL);
+
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+    final RefireGuard guard = new RefireGuard().attach(ksession);
+    Assert.assertEquals(1, guard.fireAllRules(ksession));
+
+    // the not Token() match is back once the token is gone, and fires again
+    final FactHandle token = ksession.getFactHandle(ksession.getObjects(o -> o.getClass().getSimpleName().equals("Token")).iterator().next());
+    ksession.delete(token);
+    Assert.assertEquals(1, guard.fireAllRules(ksession));
+    Assert.assertEquals(0, guard.getSuppressedCount());
+
+    ksession.dispose();
+    kc.dispose();
+  }
+
+  @Test
+  public void firedMatchesAreKeptAcrossUpgrades() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(RefireGuardTest.GROUP_ID, "test-refire-upgrades", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, RefireGuardTest.DRL + RefireGuardTest.FUNCTION_1);
+
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    final KieSession ksession = kc.newKieSession();
+    final RefireGuard guard = new RefireGuard().attach(ksession);
+    ksession.insert(new Message("Hello"));
+    Assert.assertEquals(2, guard.fireAllRules(ksession));
+
+    // adds R2 in a file of its own, R1 is not rebuilt
+    final ReleaseId releaseId2 = ks.newReleaseId(RefireGuardTest.GROUP_ID, "test-refire-upgrades", "1.1.0");
+    this.createAndDeployDelta(ks, kc, EventProcessingOption.CLOUD, releaseId2, guard, RefireGuardTest.DRL + RefireGuardTest.FUNCTION_1, RefireGuardTest.DRL_R2);
+    Assert.assertEquals(0, guard.fireAllRules(ksession));
+
+    // changes the function, R1 is rebuilt: its match on Hello, fired before the first upgrade, is still known
+    final ReleaseId releaseId3 = ks.newReleaseId(RefireGuardTest.GROUP_ID, "test-refire-upgrades", "1.2.0");
+    this.createAndDeployDelta(ks, kc, EventProcessingOption.CLOUD, releaseId3, guard, RefireGuardTest.DRL + RefireGuardTest.FUNCTION_2, RefireGuardTest.DRL_R2);
+    Assert.assertEquals(0, guard.fireAllRules(ksession));
+
+    ksession.insert(new Message("Hi"));
+    Assert.assertEquals(2, guard.fireAllRules(ksession));
+
+    // removes R2, its matches are dropped
+    final ReleaseId releaseId4 = ks.newReleaseId(RefireGuardTest.GROUP_ID, "test-refire-upgrades", "1.3.0");
+    final int size = guard.size();
+    this.createAndDeployDelta(ks, kc, EventProcessingOption.CLOUD, releaseId4, guard, RefireGuardTest.DRL + RefireGuardTest.FUNCTION_2);
+    Assert.assertEquals(0, guard.fireAllRules(ksession));
+    Assert.assertEquals(size - 1, guard.size());
+
+    ksession.dispose();
+    kc.dispose();
+  }
+
+  @Test
+  public void matchesOfDeletedFactsAreForgotten() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(RefireGuardTest.GROUP_ID, "test-refire-trim", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, RefireGuardTest.DRL);
+
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+    final RefireGuard guard = new RefireGuard().attach(ksession);
+    guard.fireAllRules(ksession);
+    final int size = guard.size();
+    final int handles = guard.getHandleCount();
+
+    final FactHandle hello = ksession.insert(new Message("Hello"));
+    final FactHandle hi = ksession.insert(new Message("Hi"));
+    Assert.assertEquals(2, guard.fireAllRules(ksession));
+    Assert.assertEquals(size + 2, guard.size());
+    Assert.assertEquals(handles + 2, guard.getHandleCount());
+
+    ksession.delete(hello);
+    ksession.update(hi, new Message("Hi"));
+    Assert.assertEquals(size, guard.size());
+    Assert.assertEquals(handles, guard.getHandleCount());
+
+    ksession.dispose();
+    kc.dispose();
+  }
+}
@@ -0,0 +1,651 @@
+package drools;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.drools.ancompiler.CompiledNetwork;
+import org.drools.core.base.ClassObjectType;
+import org.drools.core.common.BaseNode;
+import org.drools.core.common.InternalFactHandle;
+import org.drools.core.common.InternalWorkingMemory;
+import org.drools.core.common.InternalWorkingMemoryEntryPoint;
+import org.drools.core.common.Memory;
+import org.drools.core.common.MemoryFactory;
+import org.drools.core.common.RuleBasePartitionId;
+import org.drools.core.impl.InternalKnowledgeBase;
+import org.drools.core.reteoo.AccumulateNode.AccumulateMemory;
+import org.drools.core.reteoo.AlphaNode;
+import org.drools.core.reteoo.BetaMemory;
+import org.drools.core.reteoo.CompositeObjectSinkAdapter;
+import org.drools.core.reteoo.EntryPointNode;
+import org.drools.core.reteoo.ModifyPreviousTuples;
+import org.drools.core.reteoo.ObjectSink;
+import org.drools.core.reteoo.ObjectSinkNode;
+import org.drools.core.reteoo.ObjectSinkNodeList;
+import org.drools.core.reteoo.ObjectSinkPropagator;
+import org.drools.core.reteoo.ObjectSource;
+import org.drools.core.reteoo.ObjectTypeNode;
+import org.drools.core.reteoo.Sink;
+import org.drools.core.spi.PropagationContext;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+
+/**
+ * Walks the whole Rete/Phreak network of a KieBase, from its entry points down to the terminal nodes, the same way
+ * {@link BaseModelTest#getObjectTypeNodeForClass} looks up a single object type node.
+ *
+ * With a session, a snapshot holds the facts of every object type node and the tuples and facts held by the beta
+ * nodes. Alpha nodes have no memory in Phreak.
+ *
+ * Drools has no per-node hook: {@link #instrument()} wraps the sinks of the object type and alpha nodes to count, for
+ * the whole KieBase, the facts every node propagates and the time spent below it. The constraint evaluations of an
+ * alpha node are the facts its parent propagated, if the parent tests it one by one, and none if the parent reaches it
+ * through a hash or range index. The beta nodes are evaluated lazily, by segments, and are not counted, nor are the
+ * alpha nodes of a network compiled by the alpha network compiler, which calls the sinks directly.
+ *
+ * The memories of a session are not thread safe: a snapshot of a session is to be taken on its engine thread. The
+ * {@link ReteNetworkMXBean} only reads the last snapshot {@link #refresh() refreshed} there, for instance after each
+ * <code>fireAllRules</code>.
+ */
+public class ReteInspector {
+
+  /**
+   * Receives the statistics of every node of a snapshot.
+   */
+  public interface MetricsSink {
+    void record(NodeStats stats);
+  }
+
+  public static class NodeStats {
+    private final int id;
+    private final String type;
+    private final String description;
+    private final int depth;
+    private final int sinks;
+    private final int associations;
+    private final int leftMemory;
+    private final int rightMemory;
+    private final long factCount;
+    private final long propagations;
+    private final long evaluations;
+    private final long nanos;
+
+    NodeStats(final BaseNode node, final int depth, final int sinks, final int leftMemory, final int rightMemory, final long factCount,
+              final CountingPropagator counter, final long evaluations) {
+      this.id = node.getId();
+      this.type = node.getClass().getSimpleName();
+      this.description = node.toString();
+      this.depth = depth;
+      this.sinks = sinks;
+      this.associations = node.getAssociationsSize();
+      this.leftMemory = leftMemory;
+      this.rightMemory = rightMemory;
+      this.factCount = factCount;
+      this.propagations = counter == null ? -1 : counter.propagations.sum();
+      this.nanos = counter == null ? -1 : counter.nanos.sum();
+      this.evaluations = evaluations;
+    }
+
+    public int getId() {
+      return this.id;
+    }
+
+    public String getType() {
+      return this.type;
+    }
+
+    public String getDescription() {
+      return this.description;
+    }
+
+    public int getDepth() {
+      return this.depth;
+    }
+
+    public int getSinks() {
+      return this.sinks;
+    }
+
+    /**
+     * @return how many rules share this node
+     */
+    public int getAssociations() {
+      return this.associations;
+    }
+
+    /**
+     * @return tuples in the left memory of a beta node, -1 for other nodes or without session
+     */
+    public int getLeftMemory() {
+      return this.leftMemory;
+    }
+
+    /**
+     * @return facts in the right memory of a beta node, -1 for other nodes or without session
+     */
+    public int getRightMemory() {
+      return this.rightMemory;
+    }
+
+    /**
+     * @return facts of the type of an object type node in its entry point, -1 for other nodes or without session
+     */
+    public long getFactCount() {
+      return this.factCount;
+    }
+
+    /**
+     * @return facts propagated to the sinks of the node, inserted or modified, -1 if the node is not instrumented
+     */
+    public long getPropagations() {
+      return this.propagations;
+    }
+
+    /**
+     * @return evaluations of the constraint of an alpha node, -1 for other nodes or if its parent is not instrumented
+     */
+    public long getConstraintEvaluations() {
+      return this.evaluations;
+    }
+
+    /**
+     * @return time spent propagating to the sinks of the node and below, -1 if the node is not instrumented
+     */
+    public long getTime(final TimeUnit unit) {
+      return this.nanos < 0 ? -1 : unit.convert(this.nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return "[" + this.id + "] " + this.description + " rules=" + this.associations + (this.factCount < 0 ? "" : " facts=" + this.factCount)
+          + (this.leftMemory < 0 ? "" : " left=" + this.leftMemory) + (this.rightMemory < 0 ? "" : " right=" + this.rightMemory)
+          + (this.evaluations < 0 ? "" : " evaluations=" + this.evaluations) + (this.propagations < 0 ? "" : " propagations=" + this.propagations)
+          + (this.nanos < 0 ? "" : " time=" + this.getTime(TimeUnit.MICROSECONDS) + "us");
+    }
+  }
+
+  private final InternalKnowledgeBase kbase;
+  private final InternalWorkingMemory session;
+  /** the snapshot read by the MBean */
+  private volatile Snapshot published = new Snapshot(Collections.emptyList(), 0, 0);
+
+  public ReteInspector(final KieBase kbase) {
+    this.kbase = (InternalKnowledgeBase) kbase;
+    this.session = null;
+  }
+
+  public ReteInspector(final KieSession ksession) {
+    this.kbase = (InternalKnowledgeBase) ksession.getKieBase();
+    this.session = (InternalWorkingMemory) ksession;
+  }
+
+  /**
+   * @return every node once, depth first from the entry points
+   */
+  public List<NodeStats> snapshot() {
+    final List<NodeStats> stats = new ArrayList<>();
+    final Set<Integer> visited = new HashSet<>();
+    for (final EntryPointNode epn : this.kbase.getRete().getEntryPointNodes().values()) {
+      this.visit(epn, 0, -1, visited, stats);
+    }
+    return stats;
+  }
+
+  /**
+   * Wraps the sinks of the object type and alpha nodes not instrumented yet, as the ones an update added. To be called
+   * while no session of the KieBase is running.
+   *
+   * @return the number of nodes instrumented
+   */
+  public int instrument() {
+    int instrumented = 0;
+    for (final EntryPointNode epn : this.kbase.getRete().getEntryPointNodes().values()) {
+      for (final ObjectTypeNode otn : epn.getObjectTypeNodes().values()) {
+        instrumented += ReteInspector.instrument(otn);
+      }
+    }
+    return instrumented;
+  }
+
+  private static int instrument(final ObjectSource node) {
+    final ObjectSinkPropagator propagator = node.getObjectSinkPropagator();
+    // the compiled network calls the sinks below directly
+    if (propagator instanceof CompiledNetwork) { return 0; }
+    int instrumented = 0;
+    if (!(propagator instanceof CountingPropagator)) {
+      node.setObjectSinkPropagator(new CountingPropagator(propagator));
+      instrumented++;
+    }
+    for (final ObjectSink sink : propagator.getSinks()) {
+      if (sink instanceof AlphaNode) {
+        instrumented += ReteInspector.instrument((AlphaNode) sink);
+      }
+    }
+    return instrumented;
+  }
+
+  /**
+   * Puts back the sinks wrapped by {@link #instrument()}, dropping the counters.
+   */
+  public void uninstrument() {
+    for (final EntryPointNode epn : this.kbase.getRete().getEntryPointNodes().values()) {
+      for (final ObjectTypeNode otn : epn.getObjectTypeNodes().values()) {
+        ReteInspector.uninstrument(otn);
+      }
+    }
+  }
+
+  private static void uninstrument(final ObjectSource node) {
+    final ObjectSinkPropagator propagator = ReteInspector.unwrap(node.getObjectSinkPropagator());
+    node.setObjectSinkPropagator(propagator);
+    for (final ObjectSink sink : propagator.getSinks()) {
+      if (sink instanceof AlphaNode) {
+        ReteInspector.uninstrument((AlphaNode) sink);
+      }
+    }
+  }
+
+  /**
+   * @return the propagator of a node, as drools built it
+   */
+  static ObjectSinkPropagator unwrap(final ObjectSinkPropagator propagator) {
+    return propagator instanceof CountingPropagator ? ((CountingPropagator) propagator).delegate : propagator;
+  }
+
+  /**
+   * Takes a snapshot and publishes it to the {@link ReteNetworkMXBean}. To be called on the engine thread of the session.
+   *
+   * @return the snapshot
+   */
+  public List<NodeStats> refresh() {
+    final List<NodeStats> nodes = Collections.unmodifiableList(this.snapshot());
+    this.published = new Snapshot(nodes, this.findDuplicates().size(), System.currentTimeMillis());
+    return nodes;
+  }
+
+  public void publish(final MetricsSink sink) {
+    for (final NodeStats stats : this.snapshot()) {
+      sink.record(stats);
+    }
+  }
+
+  /**
+   * @param evaluations evaluations of the constraint of the node counted by its parent, -1 if unknown
+   */
+  private void visit(final BaseNode node, final int depth, final long evaluations, final Set<Integer> visited, final List<NodeStats> stats) {
+    if (!visited.add(node.getId())) { return; }
+
+    final List<BaseNode> children = ReteInspector.children(node);
+    int left = -1;
+    int right = -1;
+    final BetaMemory betaMemory = this.betaMemory(node);
+    if (betaMemory != null) {
+      left = betaMemory.getLeftTupleMemory() == null ? 0 : betaMemory.getLeftTupleMemory().size();
+      right = betaMemory.getRightTupleMemory() == null ? 0 : betaMemory.getRightTupleMemory().size();
+    }
+    final CountingPropagator counter = node instanceof ObjectSource && ((ObjectSource) node).getObjectSinkPropagator() instanceof CountingPropagator
+        ? (CountingPropagator) ((ObjectSource) node).getObjectSinkPropagator() : null;
+    stats.add(new NodeStats(node, depth, children.size(), left, right, this.factCount(node), counter, evaluations));
+
+    final Set<ObjectSink> testedOneByOne = counter == null ? Collections.emptySet() : ReteInspector.testedOneByOne(counter.delegate);
+    for (final BaseNode child : children) {
+      long childEvaluations = -1;
+      if (counter != null && child instanceof AlphaNode) {
+        childEvaluations = testedOneByOne.contains(child) ? counter.propagations.sum() : 0;
+      }
+      this.visit(child, depth + 1, childEvaluations, visited, stats);
+    }
+  }
+
+  /**
+   * @return the sinks a propagator asserts every fact into, the other ones being reached through an index
+   */
+  private static Set<ObjectSink> testedOneByOne(final ObjectSinkPropagator propagator) {
+    final Set<ObjectSink> sinks = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (propagator instanceof CompositeObjectSinkAdapter) {
+      final CompositeObjectSinkAdapter composite = (CompositeObjectSinkAdapter) propagator;
+      for (final ObjectSinkNodeList list : Arrays.asList(composite.getHashableSinks(), composite.getRangeIndexableSinks(), composite.getOthers())) {
+        for (ObjectSinkNode sink = list == null ? null : list.getFirst(); sink != null; sink = sink.getNextObjectSinkNode()) {
+          sinks.add(sink);
+        }
+      }
+    } else {
+      sinks.addAll(Arrays.asList(propagator.getSinks()));
+    }
+    return sinks;
+  }
+
+  private long factCount(final BaseNode node) {
+    if (this.session == null || !(node instanceof ObjectTypeNode) || !(((ObjectTypeNode) node).getObjectType() instanceof ClassObjectType)) { return -1; }
+    final ObjectTypeNode otn = (ObjectTypeNode) node;
+    final InternalWorkingMemoryEntryPoint entryPoint = (InternalWorkingMemoryEntryPoint) this.session.getEntryPoint(otn.getEntryPoint().getEntryPointId());
+    if (entryPoint == null) { return -1; }
+    long count = 0;
+    final Iterator<InternalFactHandle> handles =
+        entryPoint.getObjectStore().iterateFactHandles(((ClassObjectType) otn.getObjectType()).getClassType());
+    while (handles.hasNext()) {
+      handles.next();
+      count++;
+    }
+    return count;
+  }
+
+  static List<BaseNode> children(final BaseNode node) {
+    final List<BaseNode> children = new ArrayList<>();
+    if (node instanceof EntryPointNode) {
+      children.addAll(((EntryPointNode) node).getObjectTypeNodes().values());
+    } else {
+      final Sink[] sinks = node.getSinks();
+      if (sinks != null) {
+        for (final Sink sink : sinks) {
+          if (sink instanceof BaseNode) {
+            children.add((BaseNode) sink);
+          }
+        }
+      }
+    }
+    return children;
+  }
+
+  private BetaMemory betaMemory(final BaseNode node) {
+    if (this.session == null || !(node instanceof MemoryFactory)) { return null; }
+    final Memory memory = this.session.getNodeMemories().peekNodeMemory(node.getMemoryId());
+    if (memory instanceof BetaMemory) { return (BetaMemory) memory; }
+    if (memory instanceof AccumulateMemory) { return ((AccumulateMemory) memory).getBetaMemory(); }
+    return null;
+  }
+
+  /**
+   * @return nodes having an equal sibling, that is a node the network builder should have shared but did not, as after
+   *         an update adding the same constraints again
+   */
+  public List<BaseNode> findDuplicates() {
+    final List<BaseNode> duplicates = new ArrayList<>();
+    final Set<Integer> visited = new HashSet<>();
+    for (final EntryPointNode epn : this.kbase.getRete().getEntryPointNodes().values()) {
+      ReteInspector.findDuplicates(epn, visited, duplicates);
+    }
+    return duplicates;
+  }
+
+  private static void findDuplicates(final BaseNode node, final Set<Integer> visited, final List<BaseNode> duplicates) {
+    if (!visited.add(node.getId())) { return; }
+    final List<BaseNode> children = ReteInspector.children(node);
+    for (int i = 0; i < children.size(); i++) {
+      for (int j = i + 1; j < children.size(); j++) {
+        if (children.get(i) != children.get(j) && children.get(i).equals(children.get(j))) {
+          duplicates.add(children.get(j));
+        }
+      }
+    }
+    for (final BaseNode child : children) {
+      ReteInspector.findDuplicates(child, visited, duplicates);
+    }
+  }
+
+  /**
+   * @return one line per node, indented by depth
+   */
+  public String dump() {
+    return ReteInspector.dump(this.snapshot());
+  }
+
+  private static String dump(final List<NodeStats> nodes) {
+    final StringBuilder dump = new StringBuilder();
+    for (final NodeStats stats : nodes) {
+      for (int i = 0; i < stats.getDepth(); i++) {
+        dump.append("  ");
+      }
+      dump.append(stats).append('\n');
+    }
+    return dump.toString();
+  }
+
+  public ObjectTypeNode getObjectTypeNode(final Class<?> clazz) {
+    for (final EntryPointNode epn : this.kbase.getRete().getEntryPointNodes().values()) {
+      for (final ObjectTypeNode otn : epn.getObjectTypeNodes().values()) {
+        if (otn.getObjectType().isAssignableFrom(clazz)) { return otn; }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Registers a {@link ReteNetworkMXBean} for this network in the platform MBean server. Its attributes are the ones of
+   * the last {@link #refresh()}.
+   */
+  public ObjectName registerMBean(final String name) throws JMException {
+    final ObjectName objectName = new ObjectName("drools:type=ReteNetwork,name=" + ObjectName.quote(name));
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(new ReteNetwork(this), objectName);
+    return objectName;
+  }
+
+  /**
+   * Nodes of a snapshot, and what the MBean computes from them.
+   */
+  private static class Snapshot {
+    private final List<NodeStats> nodes;
+    private final int duplicates;
+    private final long time;
+
+    Snapshot(final List<NodeStats> nodes, final int duplicates, final long time) {
+      this.nodes = nodes;
+      this.duplicates = duplicates;
+      this.time = time;
+    }
+  }
+
+  /**
+   * Reads the snapshot published by {@link ReteInspector#refresh()}, never the network itself.
+   */
+  private static class ReteNetwork implements ReteNetworkMXBean {
+    private final ReteInspector inspector;
+
+    ReteNetwork(final ReteInspector inspector) {
+      this.inspector = inspector;
+    }
+
+    @Override
+    public long getSnapshotTime() {
+      return this.inspector.published.time;
+    }
+
+    @Override
+    public int getNodeCount() {
+      return this.inspector.published.nodes.size();
+    }
+
+    @Override
+    public int getSharedNodeCount() {
+      int shared = 0;
+      for (final NodeStats stats : this.inspector.published.nodes) {
+        if (stats.getAssociations() > 1) {
+          shared++;
+        }
+      }
+      return shared;
+    }
+
+    @Override
+    public int getDuplicateNodeCount() {
+      return this.inspector.published.duplicates;
+    }
+
+    @Override
+    public long getObjectTypeNodeMemorySize() {
+      long size = 0;
+      for (final NodeStats stats : this.inspector.published.nodes) {
+        size += Math.max(0, stats.getFactCount());
+      }
+      return size;
+    }
+
+    @Override
+    public long getPropagationCount() {
+      long count = 0;
+      for (final NodeStats stats : this.inspector.published.nodes) {
+        count += Math.max(0, stats.getPropagations());
+      }
+      return count;
+    }
+
+    @Override
+    public long getConstraintEvaluationCount() {
+      long count = 0;
+      for (final NodeStats stats : this.inspector.published.nodes) {
+        count += Math.max(0, stats.getConstraintEvaluations());
+      }
+      return count;
+    }
+
+    @Override
+    public String hotNodes(final int count) {
+      final List<NodeStats> nodes = new ArrayList<>(this.inspector.published.nodes);
+      nodes.sort((a, b) -> Long.compare(b.getConstraintEvaluations(), a.getConstraintEvaluations()));
+      final StringBuilder hot = new StringBuilder();
+      for (final NodeStats stats : nodes.subList(0, Math.min(count, nodes.size()))) {
+        if (stats.getConstraintEvaluations() > 0) {
+          hot.append(stats).append('\n');
+        }
+      }
+      return hot.toString();
+    }
+
+    @Override
+    public long getBetaMemorySize() {
+      long size = 0;
+      for (final NodeStats stats : this.inspector.published.nodes) {
+        size += Math.max(0, stats.getLeftMemory()) + Math.max(0, stats.getRightMemory());
+      }
+      return size;
+    }
+
+    @Override
+    public String dump() {
+      return ReteInspector.dump(this.inspector.published.nodes);
+    }
+  }
+
+  /**
+   * Counts the facts an object type or alpha node propagates to its sinks, and the time spent below it. Sinks added or
+   * removed by an update go to the wrapped propagator, which drools may replace by another one.
+   */
+  static class CountingPropagator implements ObjectSinkPropagator {
+    private ObjectSinkPropagator delegate;
+    private final LongAdder propagations = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    public CountingPropagator() {
+      // for Externalizable
+    }
+
+    CountingPropagator(final ObjectSinkPropagator delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ObjectSinkPropagator addObjectSink(final ObjectSink sink, final int alphaNodeHashingThreshold, final int alphaNodeRangeIndexThreshold) {
+      this.delegate = this.delegate.addObjectSink(sink, alphaNodeHashingThreshold, alphaNodeRangeIndexThreshold);
+      return this;
+    }
+
+    @Override
+    public ObjectSinkPropagator removeObjectSink(final ObjectSink sink) {
+      this.delegate = this.delegate.removeObjectSink(sink);
+      return this;
+    }
+
+    @Override
+    public void changeSinkPartition(final ObjectSink sink, final RuleBasePartitionId oldPartition, final RuleBasePartitionId newPartition,
+                                    final int alphaNodeHashingThreshold, final int alphaNodeRangeIndexThreshold) {
+      this.delegate.changeSinkPartition(sink, oldPartition, newPartition, alphaNodeHashingThreshold, alphaNodeRangeIndexThreshold);
+    }
+
+    @Override
+    public void propagateAssertObject(final InternalFactHandle factHandle, final PropagationContext context, final InternalWorkingMemory workingMemory) {
+      final long start = System.nanoTime();
+      this.delegate.propagateAssertObject(factHandle, context, workingMemory);
+      this.nanos.add(System.nanoTime() - start);
+      this.propagations.increment();
+    }
+
+    @Override
+    public void propagateModifyObject(final InternalFactHandle factHandle, final ModifyPreviousTuples modifyPreviousTuples, final PropagationContext context,
+                                      final InternalWorkingMemory workingMemory) {
+      final long start = System.nanoTime();
+      this.delegate.propagateModifyObject(factHandle, modifyPreviousTuples, context, workingMemory);
+      this.nanos.add(System.nanoTime() - start);
+      this.propagations.increment();
+    }
+
+    @Override
+    public void byPassModifyToBetaNode(final InternalFactHandle factHandle, final ModifyPreviousTuples modifyPreviousTuples, final PropagationContext context,
+                                       final InternalWorkingMemory workingMemory) {
+      this.delegate.byPassModifyToBetaNode(factHandle, modifyPreviousTuples, context, workingMemory);
+    }
+
+    @Override
+    public BaseNode getMatchingNode(final BaseNode candidate) {
+      return this.delegate.getMatchingNode(candidate);
+    }
+
+    @Override
+    public ObjectSink[] getSinks() {
+      return this.delegate.getSinks();
+    }
+
+    @Override
+    public int size() {
+      return this.delegate.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return this.delegate.isEmpty();
+    }
+
+    @Override
+    public void doLinkRiaNode(final InternalWorkingMemory wm) {
+      this.delegate.doLinkRiaNode(wm);
+    }
+
+    @Override
+    public void doUnlinkRiaNode(final InternalWorkingMemory wm) {
+      this.delegate.doUnlinkRiaNode(wm);
+    }
+
+    /**
+     * A serialized KieBase is not instrumented.
+     */
+    private Object writeReplace() {
+      return this.delegate;
+    }
+
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException {
+      out.writeObject(this.delegate);
+    }
+
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+      this.delegate = (ObjectSinkPropagator) in.readObject();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package drools;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+public class ReteInspectorTest extends BaseModelTest {
+  private static final String DRL1 = "package org.drools.rete\n rule R1 when\n $s : String( this.startsWith(\"H\") )\n $i : Integer( intValue == $s.length() )\n then\n end\n";
+  private static final String DRL2 = "package org.drools.rete\n rule R2 when\n $s : String( this.startsWith(\"H\") )\n then\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public ReteInspectorTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void networkIsWalkedWithMemories() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(ReteInspectorTest.GROUP_ID, "test-rete", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, ReteInspectorTest.DRL1);
+
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    final KieSession ksession = kc.newKieSession();
+    ksession.insert("Hello");
+    ksession.insert("Hi");
+    ksession.insert(5);
+    Assert.assertEquals(1, ksession.fireAllRules());
+
+    final ReteInspector inspector = new ReteInspector(ksession);
+    final List<ReteInspector.NodeStats> nodes = inspector.snapshot();
+    Assert.assertTrue(inspector.dump(), nodes.stream().anyMatch(n -> "EntryPointNode".equals(n.getType())));
+    Assert.assertTrue(inspector.dump(), nodes.stream().anyMatch(n -> "AlphaNode".equals(n.getType())));
+    Assert.assertTrue(inspector.dump(), nodes.stream().anyMatch(n -> "RuleTerminalNode".equals(n.getType())));
+    final ReteInspector.NodeStats join = nodes.stream().filter(n -> "JoinNode".equals(n.getType())).findFirst().get();
+    Assert.assertEquals("both strings starting with H", 2, join.getLeftMemory());
+    Assert.assertEquals(1, join.getRightMemory());
+
+    // R2 shares the alpha node of R1, and the update does not duplicate it
+    final ReleaseId releaseId2 = ks.newReleaseId(ReteInspectorTest.GROUP_ID, "test-rete", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, ReteInspectorTest.DRL1, ReteInspectorTest.DRL2);
+    Assert.assertTrue(kc.updateToVersion(releaseId2).getMessages().isEmpty());
+    Assert.assertTrue(inspector.dump(), inspector.findDuplicates().isEmpty());
+    Assert.assertTrue(inspector.dump(), inspector.snapshot().stream().anyMatch(n -> "AlphaNode".equals(n.getType()) && n.getAssociations() == 2));
+
+    final ObjectName name = inspector.registerMBean("test-rete");
+    try {
+      Assert.assertEquals(0, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "NodeCount"));
+      Assert.assertEquals(0L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "SnapshotTime"));
+      Assert.assertEquals(inspector.refresh().size(), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "NodeCount"));
+    } finally {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    ksession.dispose();
+  }
+
+  @Test
+  public void alphaNetworkIsCounted() throws Exception {
+    Assume.assumeFalse("the compiled alpha network calls the sinks directly", this.testRunType.isAlphaNetworkCompiler());
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(ReteInspectorTest.GROUP_ID, "test-rete-counters", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, ReteInspectorTest.DRL1);
+
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    final KieSession ksession = kc.newKieSession();
+    final ReteInspector inspector = new ReteInspector(ksession);
+    Assert.assertTrue(inspector.instrument() > 0);
+    Assert.assertEquals(0, inspector.instrument());
+    ksession.insert("Hello");
+    ksession.insert("Hi");
+    ksession.insert("Bye");
+    ksession.insert(5);
+    Assert.assertEquals(1, ksession.fireAllRules());
+
+    final ReteInspector.NodeStats strings = ReteInspectorTest.objectTypeNode(inspector, String.class);
+    Assert.assertEquals(3, strings.getFactCount());
+    Assert.assertEquals(3, strings.getPropagations());
+    final ReteInspector.NodeStats startsWith = ReteInspectorTest.alphaNode(inspector);
+    Assert.assertEquals(inspector.dump(), 3, startsWith.getConstraintEvaluations());
+    Assert.assertEquals(inspector.dump(), 2, startsWith.getPropagations());
+    Assert.assertTrue(startsWith.getTime(TimeUnit.NANOSECONDS) > 0);
+
+    // the update goes through the instrumented nodes, and its new nodes are instrumented again
+    final ReleaseId releaseId2 = ks.newReleaseId(ReteInspectorTest.GROUP_ID, "test-rete-counters", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, ReteInspectorTest.DRL1, ReteInspectorTest.DRL2);
+    Assert.assertTrue(kc.updateToVersion(releaseId2).getMessages().isEmpty());
+    Assert.assertTrue(inspector.dump(), inspector.findDuplicates().isEmpty());
+    inspector.instrument();
+    ksession.insert("Hey");
+    Assert.assertEquals("R2 for the three strings starting with H", 3, ksession.fireAllRules());
+    Assert.assertEquals(inspector.dump(), 4, ReteInspectorTest.alphaNode(inspector).getConstraintEvaluations());
+
+    final ObjectName name = inspector.registerMBean("test-rete-counters");
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      inspector.refresh();
+      Assert.assertEquals(5L, server.getAttribute(name, "ObjectTypeNodeMemorySize"));
+      Assert.assertEquals(4L, server.getAttribute(name, "ConstraintEvaluationCount"));
+      Assert.assertTrue(((String) server.invoke(name, "hotNodes", new Object[] { 1 }, new String[] { "int" })).contains("evaluations=4"));
+
+      // the MBean reads the published snapshot only
+      ksession.insert("Hu");
+      Assert.assertEquals(1, ksession.fireAllRules());
+      Assert.assertEquals(4L, server.getAttribute(name, "ConstraintEvaluationCount"));
+      inspector.refresh();
+      Assert.assertEquals(5L, server.getAttribute(name, "ConstraintEvaluationCount"));
+    } finally {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    inspector.uninstrument();
+    Assert.assertEquals(-1, ReteInspectorTest.objectTypeNode(inspector, String.class).getPropagations());
+    ksession.insert("Ho");
+    Assert.assertEquals(1, ksession.fireAllRules());
+    ksession.dispose();
+  }
+
+  private static ReteInspector.NodeStats objectTypeNode(final ReteInspector inspector, final Class<?> clazz) {
+    final int id = inspector.getObjectTypeNode(clazz).getId();
+    return inspector.snapshot().stream().filter(n -> n.getId() == id).findFirst().get();
+  }
+
+  private static ReteInspector.NodeStats alphaNode(final ReteInspector inspector) {
+    return inspector.snapshot().stream().filter(n -> "AlphaNode".equals(n.getType())).findFirst().get();
+  }
+}
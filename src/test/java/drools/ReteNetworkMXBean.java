@@ -0,0 +1,48 @@
+package drools;
+
+/**
+ * JMX view of a Rete network, see {@link ReteInspector#registerMBean(String)}, as of its last
+ * {@link ReteInspector#refresh() snapshot}.
+ */
+public interface ReteNetworkMXBean {
+  /**
+   * @return when the snapshot was taken, in milliseconds since the epoch, 0 if none was
+   */
+  long getSnapshotTime();
+
+  int getNodeCount();
+
+  /**
+   * @return nodes used by more than one rule
+   */
+  int getSharedNodeCount();
+
+  int getDuplicateNodeCount();
+
+  /**
+   * @return facts held by all the object type nodes, alpha nodes having no memory in Phreak
+   */
+  long getObjectTypeNodeMemorySize();
+
+  /**
+   * @return tuples and facts held by all the beta nodes
+   */
+  long getBetaMemorySize();
+
+  /**
+   * @return facts propagated by all the instrumented nodes, see {@link ReteInspector#instrument()}
+   */
+  long getPropagationCount();
+
+  /**
+   * @return alpha constraints evaluated one by one below the instrumented nodes
+   */
+  long getConstraintEvaluationCount();
+
+  /**
+   * @return the <code>count</code> nodes whose constraint was evaluated the most, one per line
+   */
+  String hotNodes(int count);
+
+  String dump();
+}
@@ -0,0 +1,225 @@
+package drools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.drools.core.common.DroolsObjectInputStream;
+import org.drools.core.common.InternalFactHandle;
+import org.drools.core.impl.InternalKnowledgeBase;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.marshalling.Marshaller;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.KieSessionConfiguration;
+import org.kie.api.runtime.rule.EntryPoint;
+import org.kie.api.runtime.rule.FactHandle;
+import org.kie.api.time.SessionClock;
+import org.kie.api.time.SessionPseudoClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checkpoints of a session: a full {@link #snapshot} written by the drools {@link Marshaller} (facts, fact handles,
+ * agenda, timers and clock), followed by {@link #checkpoint deltas} holding only the facts inserted, updated or deleted
+ * since the previous checkpoint.
+ *
+ * The Marshaller serializes every fact on its own, with its handle and network state: uncompressed, a snapshot of simple
+ * facts is about 4 times the Java serialization of the fact list. Snapshots are therefore deflated, which makes them
+ * about 60% of it. Deltas are Java serialization in one stream, the facts grouped by entry point, with their handle id.
+ *
+ * Deltas do not hold the agenda: they must be taken once the rules have fired, with no match pending. On
+ * {@link #restore}, the matches created by replaying them are discarded, since the original session already fired
+ * them. Logical insertions are replayed as stated ones.
+ */
+public class SessionCheckpointer implements RuleRuntimeEventListener {
+  static final Logger LOG = LoggerFactory.getLogger(SessionCheckpointer.class);
+
+  private final KieSession ksession;
+  private final Marshaller marshaller;
+
+  /** facts inserted or updated since the last checkpoint, by entry point and fact handle id */
+  private final Map<String, Map<Long, Object>> changes = new LinkedHashMap<>();
+  private final Set<Long> deletions = new LinkedHashSet<>();
+
+  private SessionCheckpointer(final KieSession ksession) {
+    this.ksession = ksession;
+    this.marshaller = KieServices.Factory.get().getMarshallers().newMarshaller(ksession.getKieBase());
+  }
+
+  public static SessionCheckpointer attach(final KieSession ksession) {
+    final SessionCheckpointer checkpointer = new SessionCheckpointer(ksession);
+    ksession.addEventListener(checkpointer);
+    return checkpointer;
+  }
+
+  @Override
+  public void objectInserted(final ObjectInsertedEvent event) {
+    this.changed(event.getFactHandle(), event.getObject());
+  }
+
+  @Override
+  public void objectUpdated(final ObjectUpdatedEvent event) {
+    this.changed(event.getFactHandle(), event.getObject());
+  }
+
+  @Override
+  public void objectDeleted(final ObjectDeletedEvent event) {
+    final InternalFactHandle handle = (InternalFactHandle) event.getFactHandle();
+    final Map<Long, Object> facts = this.changes.get(handle.getEntryPointName());
+    if (facts != null) {
+      facts.remove(handle.getId());
+    }
+    this.deletions.add(handle.getId());
+  }
+
+  private void changed(final FactHandle handle, final Object fact) {
+    final InternalFactHandle internalHandle = (InternalFactHandle) handle;
+    this.changes.computeIfAbsent(internalHandle.getEntryPointName(), e -> new LinkedHashMap<>()).put(internalHandle.getId(), fact);
+  }
+
+  /**
+   * Writes the whole session, and starts a new series of deltas.
+   */
+  public void snapshot(final OutputStream out) throws IOException {
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      final DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater);
+      this.marshaller.marshall(deflated, this.ksession);
+      deflated.finish();
+    } finally {
+      deflater.end();
+    }
+    this.changes.clear();
+    this.deletions.clear();
+  }
+
+  /**
+   * Writes the changes since the last snapshot or checkpoint.
+   *
+   * @return the number of facts written or deleted
+   */
+  public int checkpoint(final OutputStream out) throws IOException {
+    final ObjectOutputStream stream = new ObjectOutputStream(out);
+    stream.writeLong(this.ksession.getSessionClock().getCurrentTime());
+    stream.writeInt(this.deletions.size());
+    for (final long id : this.deletions) {
+      stream.writeLong(id);
+    }
+    stream.writeInt(this.changes.size());
+    int written = this.deletions.size();
+    for (final Map.Entry<String, Map<Long, Object>> entryPoint : this.changes.entrySet()) {
+      stream.writeUTF(entryPoint.getKey());
+      stream.writeInt(entryPoint.getValue().size());
+      for (final Map.Entry<Long, Object> change : entryPoint.getValue().entrySet()) {
+        stream.writeLong(change.getKey());
+        stream.writeObject(change.getValue());
+      }
+      written += entryPoint.getValue().size();
+    }
+    stream.flush();
+
+    this.changes.clear();
+    this.deletions.clear();
+    return written;
+  }
+
+  /**
+   * @return the facts a {@link #checkpoint} would write now
+   */
+  public int getPendingChanges() {
+    int pending = this.deletions.size();
+    for (final Map<Long, Object> facts : this.changes.values()) {
+      pending += facts.size();
+    }
+    return pending;
+  }
+
+  /**
+   * Restores a session of the default KieBase and session configuration of the container.
+   */
+  public static KieSession restore(final KieContainer kc, final InputStream snapshot, final InputStream... deltas) throws IOException, ClassNotFoundException {
+    return SessionCheckpointer.restore(kc.getKieBase(), kc.getKieSessionConfiguration(), snapshot, deltas);
+  }
+
+  /**
+   * @param snapshot closed once read
+   * @param deltas the checkpoints taken after the snapshot, in order
+   */
+  public static KieSession restore(final KieBase kbase, final KieSessionConfiguration configuration, final InputStream snapshot, final InputStream... deltas)
+      throws IOException, ClassNotFoundException {
+    final KieServices ks = KieServices.Factory.get();
+    final KieSession ksession;
+    try (InputStream inflated = new InflaterInputStream(snapshot)) {
+      ksession = ks.getMarshallers().newMarshaller(kbase).unmarshall(inflated, configuration, ks.newEnvironment());
+    }
+    if (deltas.length == 0) { return ksession; }
+
+    // the snapshot keeps the fact handle ids, the replayed inserts get new ones
+    final Map<Long, FactHandle> handles = new HashMap<>();
+    for (final EntryPoint entryPoint : ksession.getEntryPoints()) {
+      for (final FactHandle handle : entryPoint.getFactHandles()) {
+        handles.put(((InternalFactHandle) handle).getId(), handle);
+      }
+    }
+    final ClassLoader classLoader = ((InternalKnowledgeBase) kbase).getRootClassLoader();
+    for (final InputStream delta : deltas) {
+      SessionCheckpointer.apply(ksession, handles, new DroolsObjectInputStream(delta, classLoader));
+    }
+    ksession.fireAllRules(match -> false);
+    return ksession;
+  }
+
+  private static void apply(final KieSession ksession, final Map<Long, FactHandle> handles, final ObjectInputStream stream) throws IOException,
+      ClassNotFoundException {
+    final long time = stream.readLong();
+    final SessionClock clock = ksession.getSessionClock();
+    if (clock instanceof SessionPseudoClock && time > clock.getCurrentTime()) {
+      ((SessionPseudoClock) clock).advanceTime(time - clock.getCurrentTime(), TimeUnit.MILLISECONDS);
+    }
+
+    final int deletions = stream.readInt();
+    for (int i = 0; i < deletions; i++) {
+      final FactHandle handle = handles.remove(stream.readLong());
+      if (handle != null) {
+        ksession.getEntryPoint(((InternalFactHandle) handle).getEntryPointName()).delete(handle);
+      }
+    }
+    final int entryPoints = stream.readInt();
+    for (int i = 0; i < entryPoints; i++) {
+      final String entryPointName = stream.readUTF();
+      final EntryPoint entryPoint = ksession.getEntryPoint(entryPointName);
+      final int changes = stream.readInt();
+      if (entryPoint == null) {
+        SessionCheckpointer.LOG.warn("No entry point " + entryPointName + " in the restored session, " + changes + " facts dropped");
+      }
+      for (int j = 0; j < changes; j++) {
+        final long id = stream.readLong();
+        final Object fact = stream.readObject();
+        if (entryPoint == null) { continue; }
+        final FactHandle handle = handles.get(id);
+        if (handle == null) {
+          handles.put(id, entryPoint.insert(fact));
+        } else {
+          entryPoint.update(handle, fact);
+        }
+      }
+    }
+  }
+}
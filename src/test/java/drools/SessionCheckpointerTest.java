@@ -0,0 +1,86 @@
+package drools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.ClassObjectFilter;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.time.SessionPseudoClock;
+
+public class SessionCheckpointerTest extends BaseModelTest {
+  private static final String DRL = "package org.drools.checkpoint\n import " + Message.class.getCanonicalName() + ";\n"
+      + "declare TokenNewDay\n @role(event)\n ts : long\nend\n"
+      + "rule \"Init TokenNewDay\" when\n not TokenNewDay()\nthen\n TokenNewDay token = new TokenNewDay();\n token.setTs(kcontext.getKnowledgeRuntime().getSessionClock().getCurrentTime());\n insert(token);\nend\n"
+      + "rule R1 when\n $t : TokenNewDay()\n $m : Message( value.startsWith(\"H\") )\nthen\nend\n";
+
+  public SessionCheckpointerTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void restoreFromSnapshotAndDeltas() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId("me.nbuchon", "test-checkpoint", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.STREAM, releaseId, SessionCheckpointerTest.DRL);
+    final KieContainer kc = ks.newKieContainer(releaseId);
+
+    final KieSession ksession = kc.newKieSession();
+    final SessionCheckpointer checkpointer = SessionCheckpointer.attach(ksession);
+    final Message hello = new Message("Hello World");
+    ksession.insert(hello);
+    Assert.assertEquals(2, ksession.fireAllRules());
+    final ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    checkpointer.snapshot(snapshot);
+    Assert.assertEquals(0, checkpointer.getPendingChanges());
+
+    ksession.<SessionPseudoClock> getSessionClock().advanceTime(1, TimeUnit.SECONDS);
+    ksession.insert(new Message("Hi Universe"));
+    Assert.assertEquals(1, ksession.fireAllRules());
+    final ByteArrayOutputStream delta1 = new ByteArrayOutputStream();
+    Assert.assertEquals(1, checkpointer.checkpoint(delta1));
+
+    ksession.delete(ksession.getFactHandle(hello));
+    ksession.insert(new Message("Bye"));
+    ksession.fireAllRules();
+    final ByteArrayOutputStream delta2 = new ByteArrayOutputStream();
+    Assert.assertEquals(2, checkpointer.checkpoint(delta2));
+
+    final KieSession restored = SessionCheckpointer.restore(kc, new ByteArrayInputStream(snapshot.toByteArray()), new ByteArrayInputStream(delta1.toByteArray()),
+        new ByteArrayInputStream(delta2.toByteArray()));
+    Assert.assertEquals(ksession.getFactCount(), restored.getFactCount());
+    Assert.assertEquals(2, restored.getObjects(new ClassObjectFilter(Message.class)).size());
+    Assert.assertEquals(1000, restored.getSessionClock().getCurrentTime());
+
+    // nothing fires again, new facts do
+    Assert.assertEquals(0, restored.fireAllRules());
+    restored.insert(new Message("Hello again"));
+    Assert.assertEquals(1, restored.fireAllRules());
+    restored.dispose();
+    ksession.dispose();
+  }
+
+  @Test
+  public void snapshotKeepsPendingMatches() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId("me.nbuchon", "test-checkpoint-agenda", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.STREAM, releaseId, SessionCheckpointerTest.DRL);
+    final KieContainer kc = ks.newKieContainer(releaseId);
+
+    final KieSession ksession = kc.newKieSession();
+    ksession.insert(new Message("Hello World"));
+    final ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    SessionCheckpointer.attach(ksession).snapshot(snapshot);
+
+    final KieSession restored = SessionCheckpointer.restore(kc, new ByteArrayInputStream(snapshot.toByteArray()));
+    Assert.assertEquals(2, restored.fireAllRules());
+    restored.dispose();
+    ksession.dispose();
+  }
+}
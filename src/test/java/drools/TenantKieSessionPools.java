@@ -0,0 +1,191 @@
+package drools;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieContainerSessionsPool;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
+
+/**
+ * Pools of stateful sessions, one per tenant, built on {@link KieContainer#newKieSessionsPool(int)}: a session given
+ * back is reset and kept for the next request instead of being disposed.
+ *
+ * Every tenant has its own container, and thus its own KieBase, on the same release: the containers share the module
+ * already compiled in the repository. A drools pool grows without bound, here at most <code>maxSize</code> sessions of
+ * a tenant are in use at once, {@link #acquire} waiting for one to be given back.
+ */
+public class TenantKieSessionPools implements AutoCloseable {
+  private final KieServices ks;
+  private final ReleaseId releaseId;
+  private final int initialSize;
+  private final int maxSize;
+  private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+  private final LongAdder acquired = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+  private final LongAdder resets = new LongAdder();
+  private final LongAdder resetNanos = new LongAdder();
+
+  /**
+   * @param initialSize sessions created up front for each tenant
+   * @param maxSize sessions of a tenant in use at the same time
+   */
+  public TenantKieSessionPools(final KieServices ks, final ReleaseId releaseId, final int initialSize, final int maxSize) {
+    if (initialSize < 0 || maxSize < Math.max(1, initialSize)) {
+      throw new IllegalArgumentException("Expecting 0 <= initialSize <= maxSize and maxSize > 0, got " + initialSize + " and " + maxSize);
+    }
+    this.ks = ks;
+    this.releaseId = releaseId;
+    this.initialSize = initialSize;
+    this.maxSize = maxSize;
+  }
+
+  private Tenant tenant(final String tenant) {
+    return this.tenants.computeIfAbsent(tenant, t -> new Tenant(this.ks.newKieContainer(this.releaseId), this.initialSize, this.maxSize));
+  }
+
+  /**
+   * @return a session of the default session model of the tenant, to be closed once the request is over
+   * @throws TimeoutException if all the sessions of the tenant stayed in use
+   */
+  public PooledSession acquire(final String tenant, final long timeout, final TimeUnit unit) throws InterruptedException, TimeoutException {
+    final Tenant pool = this.tenant(tenant);
+    final long start = System.nanoTime();
+    if (!pool.permits.tryAcquire(timeout, unit)) {
+      this.timeouts.increment();
+      throw new TimeoutException("No session of tenant " + tenant + " given back within " + timeout + " " + unit);
+    }
+    final long waited = System.nanoTime() - start;
+    this.waitNanos.add(waited);
+    this.maxWaitNanos.accumulateAndGet(waited, Math::max);
+    this.acquired.increment();
+    try {
+      return new PooledSession(pool, pool.sessions.newKieSession());
+    } catch (final RuntimeException e) {
+      pool.permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Fast path for rule sets needing no state between requests: a stateless session, drawing its sessions from the pool
+   * of the tenant, outside of the <code>maxSize</code> bound. It is thread safe and can be kept.
+   */
+  public StatelessKieSession stateless(final String tenant) {
+    return this.tenant(tenant).stateless;
+  }
+
+  public KieContainer getKieContainer(final String tenant) {
+    return this.tenant(tenant).kc;
+  }
+
+  /**
+   * @return sessions of the tenant currently in use
+   */
+  public int getInUse(final String tenant) {
+    final Tenant pool = this.tenants.get(tenant);
+    return pool == null ? 0 : this.maxSize - pool.permits.availablePermits();
+  }
+
+  public int getTenantCount() {
+    return this.tenants.size();
+  }
+
+  public long getAcquiredCount() {
+    return this.acquired.sum();
+  }
+
+  public long getTimeoutCount() {
+    return this.timeouts.sum();
+  }
+
+  public long getMeanWait(final TimeUnit unit) {
+    final long count = this.acquired.sum();
+    return count == 0 ? 0 : unit.convert(this.waitNanos.sum() / count, TimeUnit.NANOSECONDS);
+  }
+
+  public long getMaxWait(final TimeUnit unit) {
+    return unit.convert(this.maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return mean time to reset a session given back
+   */
+  public long getMeanReset(final TimeUnit unit) {
+    final long count = this.resets.sum();
+    return count == 0 ? 0 : unit.convert(this.resetNanos.sum() / count, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void close() {
+    for (final Tenant tenant : this.tenants.values()) {
+      tenant.sessions.shutdown();
+      tenant.kc.dispose();
+    }
+    this.tenants.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "TenantKieSessionPools[" + this.releaseId + ", tenants=" + this.getTenantCount() + ", acquired=" + this.getAcquiredCount() + ", timeouts="
+        + this.getTimeoutCount() + ", meanWait=" + this.getMeanWait(TimeUnit.MICROSECONDS) + "us, meanReset=" + this.getMeanReset(TimeUnit.MICROSECONDS) + "us]";
+  }
+
+  private static class Tenant {
+    private final KieContainer kc;
+    private final KieContainerSessionsPool sessions;
+    private final StatelessKieSession stateless;
+    private final Semaphore permits;
+
+    Tenant(final KieContainer kc, final int initialSize, final int maxSize) {
+      this.kc = kc;
+      this.sessions = kc.newKieSessionsPool(initialSize);
+      this.stateless = this.sessions.newStatelessKieSession();
+      this.permits = new Semaphore(maxSize);
+    }
+  }
+
+  /**
+   * A session lent by the pool. Closing it resets the session and gives it back, it must not be used afterwards.
+   */
+  public class PooledSession implements AutoCloseable {
+    private final Tenant tenant;
+    private final KieSession ksession;
+    private boolean closed;
+
+    PooledSession(final Tenant tenant, final KieSession ksession) {
+      this.tenant = tenant;
+      this.ksession = ksession;
+    }
+
+    public KieSession getSession() {
+      return this.ksession;
+    }
+
+    @Override
+    public void close() {
+      if (this.closed) { return; }
+      this.closed = true;
+      final long start = System.nanoTime();
+      try {
+        // a pooled session is reset by dispose, and goes back to the pool
+        this.ksession.dispose();
+      } finally {
+        TenantKieSessionPools.this.resetNanos.add(System.nanoTime() - start);
+        TenantKieSessionPools.this.resets.increment();
+        this.tenant.permits.release();
+      }
+    }
+  }
+}
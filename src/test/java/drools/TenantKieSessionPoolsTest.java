@@ -0,0 +1,91 @@
+package drools;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.command.KieCommands;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.api.runtime.KieSession;
+
+public class TenantKieSessionPoolsTest extends BaseModelTest {
+  private static final String DRL = "package org.drools.pool\n rule R1 when\n $s : String( this.startsWith(\"H\") )\n then\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public TenantKieSessionPoolsTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void sessionsAreResetAndReused() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(TenantKieSessionPoolsTest.GROUP_ID, "test-pool", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, TenantKieSessionPoolsTest.DRL);
+
+    try (TenantKieSessionPools pools = new TenantKieSessionPools(ks, releaseId, 1, 2)) {
+      final KieSession first;
+      try (TenantKieSessionPools.PooledSession session = pools.acquire("acme", 1, TimeUnit.SECONDS)) {
+        first = session.getSession();
+        first.insert("Hello World");
+        Assert.assertEquals(1, first.fireAllRules());
+        Assert.assertEquals(1, pools.getInUse("acme"));
+      }
+      Assert.assertEquals(0, pools.getInUse("acme"));
+
+      try (TenantKieSessionPools.PooledSession session = pools.acquire("acme", 1, TimeUnit.SECONDS)) {
+        Assert.assertSame(first, session.getSession());
+        Assert.assertEquals(0, session.getSession().getFactCount());
+        session.getSession().insert("Hello again");
+        Assert.assertEquals(1, session.getSession().fireAllRules());
+      }
+
+      // tenants have their own KieBase
+      Assert.assertNotSame(pools.getKieContainer("acme").getKieBase(), pools.getKieContainer("globex").getKieBase());
+      Assert.assertEquals(2, pools.getTenantCount());
+      Assert.assertEquals(2, pools.getAcquiredCount());
+    }
+  }
+
+  @Test
+  public void acquireWaitsForAFreeSession() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(TenantKieSessionPoolsTest.GROUP_ID, "test-pool-bound", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, TenantKieSessionPoolsTest.DRL);
+
+    try (TenantKieSessionPools pools = new TenantKieSessionPools(ks, releaseId, 0, 1)) {
+      final TenantKieSessionPools.PooledSession session = pools.acquire("acme", 1, TimeUnit.SECONDS);
+      try {
+        pools.acquire("acme", 10, TimeUnit.MILLISECONDS);
+        Assert.fail("The only session is in use");
+      } catch (final TimeoutException e) {
+        Assert.assertEquals(1, pools.getTimeoutCount());
+      }
+      // another tenant is not affected
+      pools.acquire("globex", 10, TimeUnit.MILLISECONDS).close();
+      session.close();
+      pools.acquire("acme", 10, TimeUnit.MILLISECONDS).close();
+    }
+  }
+
+  @Test
+  public void statelessFastPath() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(TenantKieSessionPoolsTest.GROUP_ID, "test-pool-stateless", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, TenantKieSessionPoolsTest.DRL);
+
+    try (TenantKieSessionPools pools = new TenantKieSessionPools(ks, releaseId, 1, 1)) {
+      final KieCommands commands = ks.getCommands();
+      for (int i = 0; i < 3; i++) {
+        final ExecutionResults results = pools.stateless("acme").execute(commands.newBatchExecution(Arrays.asList(commands.newInsert("Hello World"),
+            commands.newInsert("Bye"), commands.newFireAllRules("fired"))));
+        Assert.assertEquals(1, results.getValue("fired"));
+      }
+    }
+  }
+}
@@ -0,0 +1,338 @@
+package drools;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.drools.core.common.InternalFactHandle;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.definition.type.FactField;
+import org.kie.api.definition.type.FactType;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.EntryPoint;
+import org.kie.api.runtime.rule.FactHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps at most one fact per key for the types declared {@link #unique unique}, whichever rule or caller inserts them.
+ * Types are matched by name, so that a type redeclared by an update of the KieBase stays the same type.
+ *
+ * The facts are indexed by type name and key. {@link #insert(EntryPoint, Object)} looks the key up before inserting, an
+ * O(1) lookup, and does not insert a duplicate: it never reaches the network. The rules reach the guard through the
+ * global {@value #GLOBAL}, set by {@link #attach(KieSession)} when the KieBase declares it, in place of a
+ * <code>not</code> pattern scanning the facts of the type:
+ *
+ * <pre>
+ * global drools.UniqueFactGuard uniqueFacts
+ * rule Init when
+ *   eval( !uniqueFacts.contains("org.example.Token") )
+ * then
+ *   uniqueFacts.insert(kcontext.getKieRuntime(), new Token());
+ * end
+ * </pre>
+ *
+ * Unlike a <code>not</code> pattern, such an <code>eval</code> is not reevaluated when the fact is deleted. A duplicate
+ * inserted directly into the session is still caught, once propagated: it is deleted right away, the fact already
+ * present being kept. Around <code>updateToVersion</code>,
+ * {@link #prepareUpdate(KieSession, KieModuleDelta)} and {@link #migrate(KieSession)} replace the instances of a type the
+ * update redeclares by instances of its new class, so that the rules of the new KieBase see them. The other facts keep
+ * their handles, and the matches they are part of. Otherwise a <code>not</code> pattern of the
+ * new KieBase would not see the old instance and insert a second one.
+ */
+public class UniqueFactGuard implements RuleRuntimeEventListener {
+  static final Logger LOG = LoggerFactory.getLogger(UniqueFactGuard.class);
+  /** name of the global the guard is set to, when declared */
+  public static final String GLOBAL = "uniqueFacts";
+
+  /** key fields by type name, no field for a singleton */
+  private final Map<String, String[]> uniqueTypes = new HashMap<>();
+  private final Map<Class<?>, Field[]> keyFields = new IdentityHashMap<>();
+  private final Map<Key, FactHandle> index = new HashMap<>();
+  /** the key a fact was indexed with, facts being usually modified in place */
+  private final Map<FactHandle, Key> keys = new IdentityHashMap<>();
+  private final List<PendingFact> pending = new ArrayList<>();
+  private KieSession ksession;
+  private long duplicates;
+  private long migrated;
+
+  /**
+   * @param typeName full name of the type
+   * @param keyFields fields identifying a fact of this type, none for a single fact of this type
+   */
+  public UniqueFactGuard unique(final String typeName, final String... keyFields) {
+    this.uniqueTypes.put(typeName, keyFields);
+    return this;
+  }
+
+  /**
+   * Registers the guard on the session, sets it to the global {@value #GLOBAL} if the KieBase declares it, and indexes
+   * the facts the session already holds. Duplicates already there are kept.
+   */
+  public UniqueFactGuard attach(final KieSession ksession) {
+    this.ksession = ksession;
+    for (final FactHandle handle : ksession.getFactHandles()) {
+      final Key key = this.keyOf(((InternalFactHandle) handle).getObject());
+      if (key != null && !this.index.containsKey(key)) {
+        this.index(key, handle);
+      }
+    }
+    ksession.addEventListener(this);
+    for (final KiePackage kpackage : ksession.getKieBase().getKiePackages()) {
+      if (kpackage.getGlobalVariables().stream().anyMatch(global -> UniqueFactGuard.GLOBAL.equals(global.getName()))) {
+        ksession.setGlobal(UniqueFactGuard.GLOBAL, this);
+        break;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Inserts the fact unless a fact of the same key is already in the session, in which case the fact is not inserted
+   * and the handle of the existing one is returned.
+   *
+   * @param entryPoint the session, one of its entry points, or <code>kcontext.getKieRuntime()</code> in a consequence
+   */
+  public FactHandle insert(final EntryPoint entryPoint, final Object fact) {
+    final Key key = this.keyOf(fact);
+    final FactHandle existing = key == null ? null : this.index.get(key);
+    final Object kept = existing == null ? null : ((InternalFactHandle) existing).getObject();
+    if (kept == null || kept.getClass() != fact.getClass()) {
+      // a fact of a former declaration is replaced by the listener
+      return entryPoint.insert(fact);
+    }
+    this.duplicates++;
+    UniqueFactGuard.LOG.debug("Not inserting duplicate " + fact);
+    return existing;
+  }
+
+  private Key keyOf(final Object fact) {
+    final String[] fieldNames = this.uniqueTypes.get(fact.getClass().getName());
+    if (fieldNames == null) { return null; }
+    final Field[] fields = this.keyFields.computeIfAbsent(fact.getClass(), c -> UniqueFactGuard.fields(c, fieldNames));
+    final Object[] values = new Object[fields.length];
+    try {
+      for (int i = 0; i < fields.length; i++) {
+        values[i] = fields[i].get(fact);
+      }
+    } catch (final IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+    return new Key(fact.getClass().getName(), values);
+  }
+
+  private static Field[] fields(final Class<?> clazz, final String[] names) {
+    final Field[] fields = new Field[names.length];
+    for (int i = 0; i < names.length; i++) {
+      fields[i] = UniqueFactGuard.field(clazz, names[i]);
+      if (fields[i] == null) { throw new IllegalArgumentException("No field " + names[i] + " in " + clazz.getName()); }
+    }
+    return fields;
+  }
+
+  private static Field field(final Class<?> clazz, final String name) {
+    for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      try {
+        final Field field = c.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+      } catch (final NoSuchFieldException e) {
+        // look in the superclass
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return whether a fact of this type and key is in the session, without scanning it
+   */
+  public boolean contains(final String typeName, final Object... key) {
+    return this.index.containsKey(new Key(typeName, key));
+  }
+
+  public FactHandle getFactHandle(final String typeName, final Object... key) {
+    return this.index.get(new Key(typeName, key));
+  }
+
+  @Override
+  public void objectInserted(final ObjectInsertedEvent event) {
+    final Key key = this.keyOf(event.getObject());
+    if (key == null) { return; }
+    final FactHandle existing = this.index.get(key);
+    if (existing == null) {
+      this.index(key, event.getFactHandle());
+      return;
+    }
+
+    this.duplicates++;
+    final Object kept = ((InternalFactHandle) existing).getObject();
+    if (kept != null && kept.getClass() != event.getObject().getClass()) {
+      // the existing fact is of a former declaration, left out of the network: prepareUpdate() was not called
+      UniqueFactGuard.LOG.warn("Replacing " + kept + " of a former declaration of " + key.typeName + ", call prepareUpdate() before updateToVersion");
+      this.keys.remove(existing);
+      this.index(key, event.getFactHandle());
+      this.ksession.delete(existing);
+    } else {
+      UniqueFactGuard.LOG.info("Deleting duplicate " + event.getObject());
+      this.ksession.delete(event.getFactHandle());
+    }
+  }
+
+  @Override
+  public void objectUpdated(final ObjectUpdatedEvent event) {
+    final FactHandle handle = event.getFactHandle();
+    final Key oldKey = this.keys.get(handle);
+    final Key newKey = this.keyOf(event.getObject());
+    if (Objects.equals(oldKey, newKey)) { return; }
+    this.unindex(handle);
+    if (newKey == null) { return; }
+    if (this.index.containsKey(newKey)) {
+      this.duplicates++;
+      UniqueFactGuard.LOG.info("Deleting " + event.getObject() + ", updated to the key of another fact");
+      this.ksession.delete(handle);
+    } else {
+      this.index(newKey, handle);
+    }
+  }
+
+  @Override
+  public void objectDeleted(final ObjectDeletedEvent event) {
+    this.unindex(event.getFactHandle());
+  }
+
+  private void index(final Key key, final FactHandle handle) {
+    this.index.put(key, handle);
+    this.keys.put(handle, key);
+  }
+
+  private void unindex(final FactHandle handle) {
+    final Key key = this.keys.remove(handle);
+    if (key != null) {
+      this.index.remove(key, handle);
+    }
+  }
+
+  /**
+   * Takes the unique facts of the types the update redeclares out of the session, to be put back by
+   * {@link #migrate(KieSession)}. To be called before <code>updateToVersion</code>: once a declared type is redeclared,
+   * drools keeps its former instances in the object store of the session, out of the network, where they can no longer
+   * be deleted. The facts of the other types are left in place.
+   *
+   * @return the number of facts taken out
+   */
+  public int prepareUpdate(final KieSession ksession, final KieModuleDelta delta) {
+    for (final FactHandle handle : new ArrayList<>(this.index.values())) {
+      final Object fact = ((InternalFactHandle) handle).getObject();
+      final String name = fact.getClass().getName();
+      final int dot = name.lastIndexOf('.');
+      if (delta.redeclares(name) && ksession.getKieBase().getFactType(name.substring(0, dot), name.substring(dot + 1)) != null) {
+        this.pending.add(new PendingFact(((InternalFactHandle) handle).getEntryPointName(), fact));
+        ksession.delete(handle);
+      }
+    }
+    return this.pending.size();
+  }
+
+  /**
+   * Inserts back the facts taken out by {@link #prepareUpdate(KieSession, KieModuleDelta)}, as instances of the declaration of their type
+   * in the current KieBase of the session, their fields being copied by name. To be called after
+   * <code>updateToVersion</code>, before firing.
+   *
+   * @return the number of facts whose class changed
+   */
+  public int migrate(final KieSession ksession) {
+    int migrated = 0;
+    for (final PendingFact pending : this.pending) {
+      final Object fact = pending.fact;
+      final String name = fact.getClass().getName();
+      final int dot = name.lastIndexOf('.');
+      final FactType type = ksession.getKieBase().getFactType(name.substring(0, dot), name.substring(dot + 1));
+      if (type == null || type.getFactClass() == fact.getClass()) {
+        ksession.getEntryPoint(pending.entryPoint).insert(fact);
+        continue;
+      }
+
+      final Object copy;
+      try {
+        copy = type.newInstance();
+      } catch (final InstantiationException | IllegalAccessException e) {
+        throw new IllegalStateException("Cannot migrate " + fact + " to the new declaration of " + type.getName(), e);
+      }
+      for (final FactField field : type.getFields()) {
+        final Field former = UniqueFactGuard.field(fact.getClass(), field.getName());
+        if (former == null) { continue; }
+        try {
+          type.set(copy, field.getName(), former.get(fact));
+        } catch (final IllegalAccessException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      ksession.getEntryPoint(pending.entryPoint).insert(copy);
+      migrated++;
+    }
+    this.pending.clear();
+    this.migrated += migrated;
+    return migrated;
+  }
+
+  /**
+   * @return duplicates not inserted or deleted since the guard was attached
+   */
+  public long getDuplicateCount() {
+    return this.duplicates;
+  }
+
+  public long getMigratedCount() {
+    return this.migrated;
+  }
+
+  public int size() {
+    return this.index.size();
+  }
+
+  private static class PendingFact {
+    private final String entryPoint;
+    private final Object fact;
+
+    PendingFact(final String entryPoint, final Object fact) {
+      this.entryPoint = entryPoint;
+      this.fact = fact;
+    }
+  }
+
+  private static class Key {
+    private final String typeName;
+    private final Object[] values;
+
+    Key(final String typeName, final Object[] values) {
+      this.typeName = typeName;
+      this.values = values;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof Key)) { return false; }
+      final Key other = (Key) obj;
+      return this.typeName.equals(other.typeName) && Arrays.equals(this.values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.typeName.hashCode() + Arrays.hashCode(this.values);
+    }
+
+    @Override
+    public String toString() {
+      return this.typeName + Arrays.toString(this.values);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package drools;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.definition.type.FactType;
+import org.kie.api.event.rule.DefaultRuleRuntimeEventListener;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+public class UniqueFactGuardTest extends BaseModelTest {
+  private static final String DRL = "package org.drools.unique\n global " + UniqueFactGuard.class.getCanonicalName() + " " + UniqueFactGuard.GLOBAL
+      + "\n declare Account\n id : String\n balance : int\nend\n"
+      + "rule Open when\n $s : String()\n eval( !uniqueFacts.contains(\"org.drools.unique.Account\", $s) )\n then\n Account account = new Account();\n"
+      + " account.setId($s);\n uniqueFacts.insert(kcontext.getKieRuntime(), account);\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public UniqueFactGuardTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void duplicatesByKeyAreDeleted() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(UniqueFactGuardTest.GROUP_ID, "test-unique", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, UniqueFactGuardTest.DRL);
+    final KieContainer kc = ks.newKieContainer(releaseId);
+    final KieSession ksession = kc.newKieSession();
+    final UniqueFactGuard guard = new UniqueFactGuard().unique("org.drools.unique.Account", "id").attach(ksession);
+    final AtomicInteger inserted = new AtomicInteger();
+    ksession.addEventListener(new DefaultRuleRuntimeEventListener() {
+      @Override
+      public void objectInserted(final ObjectInsertedEvent event) {
+        inserted.incrementAndGet();
+      }
+    });
+
+    // distinct strings, equal keys: both match before any account is inserted, the second account is not inserted
+    ksession.insert(new String("A"));
+    ksession.insert(new String("A"));
+    ksession.insert(new String("B"));
+    Assert.assertEquals(3, ksession.fireAllRules());
+    Assert.assertEquals(2, guard.size());
+    Assert.assertEquals(1, guard.getDuplicateCount());
+    Assert.assertEquals(5, inserted.get());
+    Assert.assertTrue(guard.contains("org.drools.unique.Account", "A"));
+    Assert.assertFalse(guard.contains("org.drools.unique.Account", "C"));
+
+    // the account is known, the rule does not match
+    ksession.insert(new String("A"));
+    Assert.assertEquals(0, ksession.fireAllRules());
+
+    // a duplicate inserted directly is deleted once inserted
+    final FactType account = ksession.getKieBase().getFactType("org.drools.unique", "Account");
+    final Object duplicate = account.newInstance();
+    account.set(duplicate, "id", "B");
+    ksession.insert(duplicate);
+    Assert.assertEquals(2, guard.getDuplicateCount());
+    Assert.assertEquals(2, guard.size());
+    Assert.assertEquals(6, ksession.getFactCount());
+
+    // changing the key moves the fact in the index
+    final Object a = ksession.getObject(guard.getFactHandle("org.drools.unique.Account", "A"));
+    account.set(a, "id", "C");
+    ksession.update(guard.getFactHandle("org.drools.unique.Account", "A"), a);
+    Assert.assertTrue(guard.contains("org.drools.unique.Account", "C"));
+    Assert.assertFalse(guard.contains("org.drools.unique.Account", "A"));
+    Assert.assertEquals(6, ksession.getFactCount());
+    ksession.dispose();
+  }
+}
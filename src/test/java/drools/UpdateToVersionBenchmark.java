@@ -0,0 +1,192 @@
+package drools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.EntryPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drools.BaseModelTest.RUN_TYPE;
+
+/**
+ * Build, session creation, insert, fire and update costs of the {@link UpdateToVersionIssueTest} rule shapes, for every
+ * {@link RUN_TYPE}.
+ *
+ * Run with <code>mvn -Pbenchmark test</code>, results are written to <code>target/jmh-result.json</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UpdateToVersionBenchmark {
+  private static final String GROUP_ID = "me.nbuchon";
+
+  /**
+   * <code>ruleCount</code> rules alternating the R1 (<code>startsWith</code>) and R2 (<code>==</code>) shapes, R2 being
+   * on "Hi Universe" in the first version and on "Hello World" in the second one.
+   */
+  static String drl(final int ruleCount, final boolean secondVersion) {
+    final StringBuilder drl = new StringBuilder("package org.drools.incremental\nimport " + Message.class.getCanonicalName() + ";\n");
+    for (int i = 0; i < ruleCount; i++) {
+      if (i % 2 == 0) {
+        drl.append("rule R1_").append(i).append(" when\n $m : Message( value.startsWith(\"H\") )\nthen\nend\n");
+      } else {
+        drl.append("rule R2_").append(i).append(" when\n $m : Message( value == \"").append(secondVersion ? "Hello World" : "Hi Universe").append("\" )\nthen\nend\n");
+      }
+    }
+    return drl.toString();
+  }
+
+  @State(Scope.Benchmark)
+  public static class Model {
+    @Param({ "PATTERN_DSL", "STANDARD_FROM_DRL", "STANDARD_WITH_ALPHA_NETWORK", "PATTERN_WITH_ALPHA_NETWORK" })
+    RUN_TYPE runType;
+
+    @Param({ "100", "10000" })
+    int factCount;
+
+    @Param({ "2", "200" })
+    int ruleCount;
+
+    KieServices ks;
+    BenchmarkDeployer deployer;
+    ReleaseId releaseId1;
+    ReleaseId releaseId2;
+    ReleaseId buildReleaseId;
+    String drl1;
+    String drl2;
+    Message[] messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      this.ks = KieServices.Factory.get();
+      this.deployer = new BenchmarkDeployer(this.runType);
+      final String artifactId = "bench-" + this.runType + "-" + this.ruleCount;
+      this.releaseId1 = this.ks.newReleaseId(UpdateToVersionBenchmark.GROUP_ID, artifactId, "1.0.0");
+      this.releaseId2 = this.ks.newReleaseId(UpdateToVersionBenchmark.GROUP_ID, artifactId, "1.1.0");
+      this.buildReleaseId = this.ks.newReleaseId(UpdateToVersionBenchmark.GROUP_ID, artifactId + "-build", "1.0.0");
+      this.drl1 = UpdateToVersionBenchmark.drl(this.ruleCount, false);
+      this.drl2 = UpdateToVersionBenchmark.drl(this.ruleCount, true);
+      this.deployer.deploy(this.ks, EventProcessingOption.CLOUD, this.releaseId1, this.drl1);
+      this.deployer.deploy(this.ks, EventProcessingOption.CLOUD, this.releaseId2, this.drl2);
+
+      this.messages = new Message[this.factCount];
+      for (int i = 0; i < this.factCount; i++) {
+        this.messages[i] = new Message(i % 2 == 0 ? "Hello World" : "Hi Universe");
+      }
+    }
+  }
+
+  /**
+   * A fresh session on version 1.0.0 for every invocation, so that the measured operation does not see the facts of the
+   * previous one.
+   */
+  public abstract static class AbstractSession {
+    KieContainer kc;
+    KieSession ksession;
+    EntryPoint entryPoint;
+
+    void open(final Model model, final boolean load, final boolean fire) {
+      this.kc = model.ks.newKieContainer(model.releaseId1);
+      this.ksession = this.kc.newKieSession();
+      this.entryPoint = this.ksession.getEntryPoint("DEFAULT");
+      if (load) {
+        for (final Message message : model.messages) {
+          this.entryPoint.insert(message);
+        }
+      }
+      if (fire) {
+        this.ksession.fireAllRules();
+      }
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+      this.ksession.dispose();
+      this.kc.dispose();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Session extends AbstractSession {
+    @Setup(Level.Invocation)
+    public void setUp(final Model model) {
+      this.open(model, false, false);
+    }
+  }
+
+  /**
+   * Holding the facts, not fired yet.
+   */
+  @State(Scope.Thread)
+  public static class LoadedSession extends AbstractSession {
+    @Setup(Level.Invocation)
+    public void setUp(final Model model) {
+      this.open(model, true, false);
+    }
+  }
+
+  /**
+   * Holding the facts, already fired.
+   */
+  @State(Scope.Thread)
+  public static class FiredSession extends AbstractSession {
+    @Setup(Level.Invocation)
+    public void setUp(final Model model) {
+      this.open(model, true, true);
+    }
+  }
+
+  @Benchmark
+  public Object buildKjar(final Model model) {
+    return model.deployer.build(model.ks, EventProcessingOption.CLOUD, model.buildReleaseId, model.drl2).getKieModule();
+  }
+
+  @Benchmark
+  public Object newKieContainerAndSession(final Model model) {
+    final KieContainer kc = model.ks.newKieContainer(model.releaseId1);
+    final KieSession ksession = kc.newKieSession();
+    final long id = ksession.getIdentifier();
+    ksession.dispose();
+    kc.dispose();
+    return id;
+  }
+
+  @Benchmark
+  public long insert(final Model model, final Session session) {
+    for (final Message message : model.messages) {
+      session.entryPoint.insert(message);
+    }
+    return session.entryPoint.getFactCount();
+  }
+
+  @Benchmark
+  public int fireAllRules(final LoadedSession session) {
+    return session.ksession.fireAllRules();
+  }
+
+  /**
+   * Pause of the session while the container is updated, facts being already fired.
+   */
+  @Benchmark
+  public Object updateToVersion(final Model model, final FiredSession session) {
+    return session.kc.updateToVersion(model.releaseId2);
+  }
+}
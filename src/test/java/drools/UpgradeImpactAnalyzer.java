@@ -0,0 +1,385 @@
+package drools;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.core.base.ClassObjectType;
+import org.drools.core.common.BaseNode;
+import org.drools.core.impl.InternalKnowledgeBase;
+import org.drools.core.reteoo.EntryPointNode;
+import org.drools.core.reteoo.ObjectTypeNode;
+import org.drools.core.reteoo.TerminalNode;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.definition.rule.Rule;
+import org.kie.api.definition.type.FactType;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.EntryPoint;
+
+/**
+ * Dry run of {@link KieContainer#updateToVersion}: what an update to a release deployed in the repository would rebuild
+ * and re-propagate in the live sessions of a container, without touching them.
+ *
+ * The scope follows what the updater of drools actually does: a changed rule is removed and added again, a changed
+ * function recompiles its whole package, and so every rule of it, and a declared type already in use makes the whole
+ * KieBase rebuilt, its former instances staying in the sessions out of the network. The rebuilt nodes are the nodes of
+ * the current network only associated with rebuilt rules, and the ones of the target network; the facts re-propagated
+ * are the facts of the sessions matching the object type nodes above a rebuilt rule of the target network.
+ *
+ * The pause is estimated with a cost per node and per fact, to be measured on the actual rules with
+ * {@link UpdateToVersionBenchmark}.
+ *
+ * The facts of the live sessions are counted from the calling thread, which must be the one running them.
+ */
+public class UpgradeImpactAnalyzer {
+  /** default cost of building or removing a node, in nanoseconds */
+  public static final long DEFAULT_NANOS_PER_NODE = 20_000;
+  /** default cost of propagating a fact through a rebuilt rule, in nanoseconds */
+  public static final long DEFAULT_NANOS_PER_FACT = 1_000;
+
+  public enum Scope {
+    /** nothing changed in the rules */
+    NONE,
+    /** the changed rules only */
+    RULES,
+    /** every rule of the packages declaring a changed function */
+    PACKAGES,
+    /** every rule, a type in use being redeclared */
+    KIE_BASE
+  }
+
+  private final KieServices ks;
+  private final long nanosPerNode;
+  private final long nanosPerFact;
+
+  public UpgradeImpactAnalyzer(final KieServices ks) {
+    this(ks, UpgradeImpactAnalyzer.DEFAULT_NANOS_PER_NODE, UpgradeImpactAnalyzer.DEFAULT_NANOS_PER_FACT);
+  }
+
+  public UpgradeImpactAnalyzer(final KieServices ks, final long nanosPerNode, final long nanosPerFact) {
+    this.ks = ks;
+    this.nanosPerNode = nanosPerNode;
+    this.nanosPerFact = nanosPerFact;
+  }
+
+  /**
+   * Compares the release of the container with <code>target</code>, which must be in the repository, without building
+   * it: the network of the target is estimated with the current one, missing the nodes of the rules the update adds.
+   */
+  public Impact analyze(final KieContainer kc, final ReleaseId target) {
+    return this.analyze(kc, target, null);
+  }
+
+  /**
+   * Compares the release of the container with the release of <code>targetContainer</code>, built by the caller, for
+   * instance to switch to it afterwards. The container is left as is.
+   */
+  public Impact analyze(final KieContainer kc, final KieContainer targetContainer) {
+    return this.analyze(kc, targetContainer.getReleaseId(), targetContainer);
+  }
+
+  private Impact analyze(final KieContainer kc, final ReleaseId target, final KieContainer targetContainer) {
+    final InternalKieModule current = (InternalKieModule) this.ks.getRepository().getKieModule(kc.getReleaseId());
+    final InternalKieModule next = (InternalKieModule) this.ks.getRepository().getKieModule(target);
+    if (current == null || next == null) {
+      throw new IllegalArgumentException("Expecting " + kc.getReleaseId() + " and " + target + " in the repository");
+    }
+    final KieModuleDelta delta = KieModuleDelta.between(current, next);
+    final Impact impact = new Impact(kc.getReleaseId(), target, delta);
+    if (delta.isEmpty()) { return impact; }
+
+    for (final String name : kc.getKieBaseNames()) {
+      final KieBase kbase = kc.getKieBase(name);
+      final KieBase targetKbase;
+      if (targetContainer == null) {
+        targetKbase = kbase;
+      } else {
+        targetKbase = targetContainer.getKieBaseNames().contains(name) ? targetContainer.getKieBase(name) : null;
+      }
+      this.analyze(kbase, targetKbase, delta, impact);
+    }
+    impact.estimatedPauseNanos = impact.removedNodes * this.nanosPerNode + impact.addedNodes * this.nanosPerNode
+        + impact.repropagatedFacts * this.nanosPerFact;
+    return impact;
+  }
+
+  private void analyze(final KieBase kbase, final KieBase targetKbase, final KieModuleDelta delta, final Impact impact) {
+    final Set<String> redeclared = UpgradeImpactAnalyzer.redeclaredTypes(kbase, delta);
+    final Set<String> packages = new HashSet<>();
+    final Scope scope;
+    if (!redeclared.isEmpty()) {
+      scope = Scope.KIE_BASE;
+    } else {
+      packages.addAll(UpgradeImpactAnalyzer.packagesDeclaring(kbase, delta.getChangedFunctions()));
+      if (targetKbase != null) {
+        packages.addAll(UpgradeImpactAnalyzer.packagesDeclaring(targetKbase, delta.getChangedFunctions()));
+      }
+      scope = packages.isEmpty() ? delta.getChangedRules().isEmpty() ? Scope.NONE : Scope.RULES : Scope.PACKAGES;
+    }
+    if (scope.compareTo(impact.scope) > 0) {
+      impact.scope = scope;
+    }
+    if (scope == Scope.NONE) { return; }
+
+    final Set<String> rebuilt = UpgradeImpactAnalyzer.rebuiltRules(kbase, scope, packages, delta);
+    if (targetKbase != null) {
+      rebuilt.addAll(UpgradeImpactAnalyzer.rebuiltRules(targetKbase, scope, packages, delta));
+    }
+    impact.rules.addAll(rebuilt);
+
+    final Map<String, Map<Class<?>, Long>> counts = new HashMap<>();
+    for (final KieSession ksession : kbase.getKieSessions()) {
+      UpgradeImpactAnalyzer.countFacts(ksession, counts);
+      impact.sessions++;
+    }
+    for (final Map<Class<?>, Long> byClass : counts.values()) {
+      for (final Map.Entry<Class<?>, Long> entry : byClass.entrySet()) {
+        if (redeclared.contains(entry.getKey().getName())) {
+          impact.orphanedFacts += entry.getValue();
+        }
+      }
+    }
+
+    impact.removedNodes += UpgradeImpactAnalyzer.walk(kbase, rebuilt, null);
+    if (targetKbase != null) {
+      final Set<ObjectTypeNode> otns = new HashSet<>();
+      impact.addedNodes += UpgradeImpactAnalyzer.walk(targetKbase, rebuilt, otns);
+      for (final ObjectTypeNode otn : otns) {
+        final long facts = UpgradeImpactAnalyzer.factsOf(otn, counts);
+        impact.objectTypes.merge(otn.getObjectType().toString(), facts, Long::sum);
+        impact.repropagatedFacts += facts;
+      }
+    }
+  }
+
+  /**
+   * @return names of the classes of the module the network uses and the update replaces, declared types being compiled
+   *         into classes of the module
+   */
+  private static Set<String> redeclaredTypes(final KieBase kbase, final KieModuleDelta delta) {
+    final Set<String> changed = new HashSet<>();
+    for (final String file : delta.getChangedFiles()) {
+      if (file.endsWith(".class")) {
+        changed.add(file.substring(0, file.length() - ".class".length()).replace('/', '.'));
+      }
+    }
+    final Set<String> redeclared = new HashSet<>();
+    for (final KiePackage kpackage : kbase.getKiePackages()) {
+      for (final FactType type : kpackage.getFactTypes()) {
+        if (changed.contains(type.getName()) || delta.redeclares(type.getName())) {
+          redeclared.add(type.getName());
+        }
+      }
+    }
+    for (final EntryPointNode epn : ((InternalKnowledgeBase) kbase).getRete().getEntryPointNodes().values()) {
+      for (final ObjectTypeNode otn : epn.getObjectTypeNodes().values()) {
+        if (otn.getObjectType() instanceof ClassObjectType && changed.contains(((ClassObjectType) otn.getObjectType()).getClassName())) {
+          redeclared.add(((ClassObjectType) otn.getObjectType()).getClassName());
+        }
+      }
+    }
+    return redeclared;
+  }
+
+  /**
+   * @return the packages declaring one of the functions, all of them if the KieBase does not keep its functions, as with
+   *         the executable model
+   */
+  private static Set<String> packagesDeclaring(final KieBase kbase, final Set<String> functions) {
+    final Set<String> packages = new HashSet<>();
+    if (functions.isEmpty()) { return packages; }
+    boolean known = false;
+    for (final KiePackage kpackage : kbase.getKiePackages()) {
+      known |= !kpackage.getFunctionNames().isEmpty();
+      if (!Collections.disjoint(kpackage.getFunctionNames(), functions)) {
+        packages.add(kpackage.getName());
+      }
+    }
+    if (!known) {
+      for (final KiePackage kpackage : kbase.getKiePackages()) {
+        if (!kpackage.getRules().isEmpty()) {
+          packages.add(kpackage.getName());
+        }
+      }
+    }
+    return packages;
+  }
+
+  private static Set<String> rebuiltRules(final KieBase kbase, final Scope scope, final Set<String> packages, final KieModuleDelta delta) {
+    final Set<String> rules = new TreeSet<>();
+    for (final KiePackage kpackage : kbase.getKiePackages()) {
+      for (final Rule rule : kpackage.getRules()) {
+        if (scope == Scope.KIE_BASE || packages.contains(kpackage.getName()) || delta.isChangedRule(kpackage.getName(), rule.getName())) {
+          rules.add(UpgradeImpactAnalyzer.key(rule));
+        }
+      }
+    }
+    return rules;
+  }
+
+  private static String key(final Rule rule) {
+    return rule.getPackageName() + "." + rule.getName();
+  }
+
+  /**
+   * Counts the nodes only associated with rebuilt rules, collecting the object type nodes above their terminal nodes.
+   */
+  private static int walk(final KieBase kbase, final Set<String> rebuilt, final Set<ObjectTypeNode> otns) {
+    final Set<Integer> counted = new HashSet<>();
+    for (final EntryPointNode epn : ((InternalKnowledgeBase) kbase).getRete().getEntryPointNodes().values()) {
+      for (final ObjectTypeNode otn : epn.getObjectTypeNodes().values()) {
+        // a join is below several object type nodes, each of them propagating its facts
+        UpgradeImpactAnalyzer.walk(otn, rebuilt, otn, otns, new HashSet<>(), counted);
+      }
+    }
+    return counted.size();
+  }
+
+  private static void walk(final BaseNode node, final Set<String> rebuilt, final ObjectTypeNode otn, final Set<ObjectTypeNode> otns, final Set<Integer> visited,
+      final Set<Integer> counted) {
+    if (!visited.add(node.getId())) { return; }
+    if (node instanceof TerminalNode && otns != null && rebuilt.contains(UpgradeImpactAnalyzer.key(((TerminalNode) node).getRule()))) {
+      otns.add(otn);
+    }
+    if (!(node instanceof ObjectTypeNode) && UpgradeImpactAnalyzer.onlyRebuilt(node, rebuilt)) {
+      counted.add(node.getId());
+    }
+    for (final BaseNode child : ReteInspector.children(node)) {
+      UpgradeImpactAnalyzer.walk(child, rebuilt, otn, otns, visited, counted);
+    }
+  }
+
+  private static boolean onlyRebuilt(final BaseNode node, final Set<String> rebuilt) {
+    final Rule[] rules = node.getAssociatedRules();
+    if (rules.length == 0) { return false; }
+    for (final Rule rule : rules) {
+      if (!rebuilt.contains(UpgradeImpactAnalyzer.key(rule))) { return false; }
+    }
+    return true;
+  }
+
+  /**
+   * Counts the facts of a session by entry point and class, in one pass over its object stores. The stores are not
+   * thread safe: the sessions must not be running meanwhile, so call the analyzer from their engine thread.
+   */
+  private static void countFacts(final KieSession ksession, final Map<String, Map<Class<?>, Long>> counts) {
+    for (final EntryPoint entryPoint : ksession.getEntryPoints()) {
+      final Map<Class<?>, Long> byClass = counts.computeIfAbsent(entryPoint.getEntryPointId(), e -> new HashMap<>());
+      for (final Object fact : entryPoint.getObjects()) {
+        byClass.merge(fact.getClass(), 1L, Long::sum);
+      }
+    }
+  }
+
+  private static long factsOf(final ObjectTypeNode otn, final Map<String, Map<Class<?>, Long>> counts) {
+    if (!(otn.getObjectType() instanceof ClassObjectType)) { return 0; }
+    final Class<?> type = ((ClassObjectType) otn.getObjectType()).getClassType();
+    final Map<Class<?>, Long> byClass = counts.get(otn.getEntryPoint().getEntryPointId());
+    if (byClass == null) { return 0; }
+    long facts = 0;
+    for (final Map.Entry<Class<?>, Long> entry : byClass.entrySet()) {
+      if (type.isAssignableFrom(entry.getKey())) {
+        facts += entry.getValue();
+      }
+    }
+    return facts;
+  }
+
+  /**
+   * What an update would do to the sessions of a container.
+   */
+  public static class Impact {
+    private final ReleaseId from;
+    private final ReleaseId to;
+    private final KieModuleDelta delta;
+    private Scope scope = Scope.NONE;
+    private final Set<String> rules = new TreeSet<>();
+    private final Map<String, Long> objectTypes = new HashMap<>();
+    private int sessions;
+    private int removedNodes;
+    private int addedNodes;
+    private long repropagatedFacts;
+    private long orphanedFacts;
+    private long estimatedPauseNanos;
+
+    Impact(final ReleaseId from, final ReleaseId to, final KieModuleDelta delta) {
+      this.from = from;
+      this.to = to;
+      this.delta = delta;
+    }
+
+    public KieModuleDelta getDelta() {
+      return this.delta;
+    }
+
+    public Scope getScope() {
+      return this.scope;
+    }
+
+    /**
+     * @return package and name of the rules removed and added again, or added, or removed
+     */
+    public Set<String> getRebuiltRules() {
+      return Collections.unmodifiableSet(this.rules);
+    }
+
+    /**
+     * @return facts re-propagated per object type of the target network
+     */
+    public Map<String, Long> getObjectTypes() {
+      return Collections.unmodifiableMap(this.objectTypes);
+    }
+
+    public int getSessionCount() {
+      return this.sessions;
+    }
+
+    /**
+     * @return nodes of the current network the update removes
+     */
+    public int getRemovedNodes() {
+      return this.removedNodes;
+    }
+
+    /**
+     * @return nodes of the target network the update builds
+     */
+    public int getAddedNodes() {
+      return this.addedNodes;
+    }
+
+    /**
+     * @return facts propagated again through the rebuilt rules, all sessions together
+     */
+    public long getRepropagatedFacts() {
+      return this.repropagatedFacts;
+    }
+
+    /**
+     * @return instances of redeclared types, left in the sessions out of the network
+     */
+    public long getOrphanedFacts() {
+      return this.orphanedFacts;
+    }
+
+    public long getEstimatedPause(final TimeUnit unit) {
+      return unit.convert(this.estimatedPauseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return "Impact[" + this.from + " -> " + this.to + ", scope=" + this.scope + ", rules=" + this.rules + ", functions=" + this.delta.getChangedFunctions()
+          + ", types=" + this.delta.getChangedTypes() + ", sessions=" + this.sessions + ", removedNodes=" + this.removedNodes + ", addedNodes=" + this.addedNodes
+          + ", repropagated=" + this.objectTypes + ", orphaned=" + this.orphanedFacts + ", pause=" + this.getEstimatedPause(TimeUnit.MICROSECONDS) + "us]";
+    }
+  }
+}
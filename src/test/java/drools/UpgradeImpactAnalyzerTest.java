@@ -0,0 +1,120 @@
+package drools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+public class UpgradeImpactAnalyzerTest extends BaseModelTest {
+  private static final String DRL1 = "package org.drools.impact\n rule R1 when\n $s : String( this.startsWith(\"H\") )\n then\n end\n";
+  private static final String DRL2_BASE = "package org.drools.impact\n {}rule R2 when\n $s : String( this == \"{value}\" )\n then\n end\n";
+  /** same rule name, in another package */
+  private static final String DRL_OTHER = "package org.drools.other\n rule R2 when\n $i : Integer()\n then\n end\n";
+  private static final String FUNCTION_1 = "function String testFormat(String value){\n return value+\" test1\";\n}\n";
+  private static final String FUNCTION_2 = "function String testFormat(String value){\n return value+\" test2\";\n}\n";
+  private static final String TOKEN_1 = "package org.drools.impact\n declare TokenNewDay\n ts : long\nend\n"
+      + " rule \"Init TokenNewDay\"\n when\n not TokenNewDay()\n then\n insert(new TokenNewDay());\n end\n";
+  private static final String TOKEN_2 = UpgradeImpactAnalyzerTest.TOKEN_1.replace("ts : long", "ts : long\n day : int");
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public UpgradeImpactAnalyzerTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  private static String drl2(final String function, final String value) {
+    return UpgradeImpactAnalyzerTest.DRL2_BASE.replace("{}", function).replace("{value}", value);
+  }
+
+  @Test
+  public void modifiedRuleRebuildsItsNodesOnly() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(UpgradeImpactAnalyzerTest.GROUP_ID, "test-impact-rule", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, UpgradeImpactAnalyzerTest.DRL1, UpgradeImpactAnalyzerTest.drl2("", "Hi Universe"),
+        UpgradeImpactAnalyzerTest.DRL_OTHER);
+    final ReleaseId releaseId2 = ks.newReleaseId(UpgradeImpactAnalyzerTest.GROUP_ID, "test-impact-rule", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, UpgradeImpactAnalyzerTest.DRL1, UpgradeImpactAnalyzerTest.drl2("", "Hello World"),
+        UpgradeImpactAnalyzerTest.DRL_OTHER);
+
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    final KieSession ksession = kc.newKieSession();
+    ksession.insert("Hello World");
+    ksession.insert("Hi");
+    Assert.assertEquals(2, ksession.fireAllRules());
+
+    final UpgradeImpactAnalyzer.Impact impact = new UpgradeImpactAnalyzer(ks).analyze(kc, releaseId2);
+    Assert.assertEquals(impact.toString(), UpgradeImpactAnalyzer.Scope.RULES, impact.getScope());
+    Assert.assertEquals(1, impact.getRebuiltRules().size());
+    Assert.assertTrue(impact.getRebuiltRules().contains("org.drools.impact.R2"));
+    Assert.assertEquals(1, impact.getSessionCount());
+    Assert.assertTrue(impact.getRemovedNodes() > 0);
+    Assert.assertTrue(impact.getAddedNodes() > 0);
+    Assert.assertEquals(2, impact.getRepropagatedFacts());
+    Assert.assertEquals(0, impact.getOrphanedFacts());
+
+    // the target built by the caller
+    final KieContainer targetContainer = ks.newKieContainer(releaseId2);
+    final UpgradeImpactAnalyzer.Impact exact = new UpgradeImpactAnalyzer(ks).analyze(kc, targetContainer);
+    Assert.assertEquals(exact.toString(), impact.getRebuiltRules(), exact.getRebuiltRules());
+    Assert.assertTrue(exact.getAddedNodes() > 0);
+    Assert.assertEquals(2, exact.getRepropagatedFacts());
+    targetContainer.dispose();
+
+    // a dry run
+    Assert.assertEquals(releaseId1, kc.getReleaseId());
+    Assert.assertEquals(0, ksession.fireAllRules());
+    ksession.dispose();
+  }
+
+  @Test
+  public void modifiedFunctionRebuildsItsPackage() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(UpgradeImpactAnalyzerTest.GROUP_ID, "test-impact-function", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, UpgradeImpactAnalyzerTest.DRL1,
+        UpgradeImpactAnalyzerTest.drl2(UpgradeImpactAnalyzerTest.FUNCTION_1, "Hello World"));
+    final ReleaseId releaseId2 = ks.newReleaseId(UpgradeImpactAnalyzerTest.GROUP_ID, "test-impact-function", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, UpgradeImpactAnalyzerTest.DRL1,
+        UpgradeImpactAnalyzerTest.drl2(UpgradeImpactAnalyzerTest.FUNCTION_2, "Hello World"));
+
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    final KieSession ksession = kc.newKieSession();
+    ksession.insert("Hello World");
+    Assert.assertEquals(2, ksession.fireAllRules());
+
+    final UpgradeImpactAnalyzer.Impact impact = new UpgradeImpactAnalyzer(ks, 1_000, 1_000).analyze(kc, releaseId2);
+    Assert.assertEquals(impact.toString(), UpgradeImpactAnalyzer.Scope.PACKAGES, impact.getScope());
+    Assert.assertTrue(impact.getDelta().getChangedFunctions().contains("testFormat"));
+    // R1 did not change, but is rebuilt with its package, as the reproducers show
+    Assert.assertTrue(impact.getRebuiltRules().contains("org.drools.impact.R1"));
+    Assert.assertTrue(impact.getRebuiltRules().contains("org.drools.impact.R2"));
+    Assert.assertEquals(1, impact.getRepropagatedFacts());
+    Assert.assertEquals((impact.getRemovedNodes() + impact.getAddedNodes() + 1) * 1_000, impact.getEstimatedPause(TimeUnit.NANOSECONDS));
+    ksession.dispose();
+  }
+
+  @Test
+  public void redeclaredTypeRebuildsTheKieBase() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId1 = ks.newReleaseId(UpgradeImpactAnalyzerTest.GROUP_ID, "test-impact-type", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId1, UpgradeImpactAnalyzerTest.DRL1, UpgradeImpactAnalyzerTest.TOKEN_1);
+    final ReleaseId releaseId2 = ks.newReleaseId(UpgradeImpactAnalyzerTest.GROUP_ID, "test-impact-type", "1.1.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId2, UpgradeImpactAnalyzerTest.DRL1, UpgradeImpactAnalyzerTest.TOKEN_2);
+
+    final KieContainer kc = ks.newKieContainer(releaseId1);
+    final KieSession ksession = kc.newKieSession();
+    ksession.insert("Hello World");
+    Assert.assertEquals(2, ksession.fireAllRules());
+
+    final UpgradeImpactAnalyzer.Impact impact = new UpgradeImpactAnalyzer(ks).analyze(kc, releaseId2);
+    Assert.assertEquals(impact.toString(), UpgradeImpactAnalyzer.Scope.KIE_BASE, impact.getScope());
+    Assert.assertTrue(impact.getRebuiltRules().contains("org.drools.impact.R1"));
+    Assert.assertTrue(impact.getRebuiltRules().contains("org.drools.impact.Init TokenNewDay"));
+    Assert.assertEquals("the token", 1, impact.getOrphanedFacts());
+    ksession.dispose();
+  }
+}
@@ -0,0 +1,206 @@
+package drools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import org.drools.core.common.InternalFactHandle;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.ObjectFilter;
+import org.kie.api.runtime.rule.EntryPoint;
+import org.kie.api.runtime.rule.FactHandle;
+
+/**
+ * Fact counts of a session per class and per entry point, kept up to date by a {@link RuleRuntimeEventListener} so
+ * reading them never scans the working memory.
+ *
+ * Reads are safe from any thread while the engine thread updates the counters.
+ */
+public class WorkingMemoryStatistics implements RuleRuntimeEventListener {
+  /**
+   * Bytes a fact costs the session besides itself, on a 64-bit JVM with compressed oops (12 bytes headers, 4 bytes
+   * references, 8 bytes alignment), from the fields of the drools 7 classes: 80 for the <code>DefaultFactHandle</code>,
+   * which is also the node of its class list in the object store, and 32 for its <code>SingleLinkedTuples</code>. A
+   * KieBase with equality behavior adds an <code>EqualityKey</code> and an entry of the equality map, about 70 bytes,
+   * and every join memory holding the fact a tuple.
+   */
+  public static final long HANDLE_OVERHEAD = 80 + 32;
+
+  private final Map<Class<?>, LongAdder> byClass = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> byEntryPoint = new ConcurrentHashMap<>();
+  private final LongAdder inserted = new LongAdder();
+  private final LongAdder deleted = new LongAdder();
+  private final LongAdder updated = new LongAdder();
+  private final long since = System.nanoTime();
+
+  /**
+   * Registers the statistics on the session. Facts already in the session are counted once, by a single pass over its
+   * entry points.
+   */
+  public static WorkingMemoryStatistics attach(final KieSession ksession) {
+    final WorkingMemoryStatistics statistics = new WorkingMemoryStatistics();
+    for (final EntryPoint entryPoint : ksession.getEntryPoints()) {
+      for (final Object fact : entryPoint.getObjects()) {
+        statistics.add(fact.getClass(), entryPoint.getEntryPointId(), 1);
+      }
+    }
+    ksession.addEventListener(statistics);
+    return statistics;
+  }
+
+  private void add(final Class<?> clazz, final String entryPoint, final long delta) {
+    this.byClass.computeIfAbsent(clazz, c -> new LongAdder()).add(delta);
+    this.byEntryPoint.computeIfAbsent(entryPoint, e -> new LongAdder()).add(delta);
+  }
+
+  private static String entryPointOf(final FactHandle handle) {
+    return ((InternalFactHandle) handle).getEntryPointName();
+  }
+
+  @Override
+  public void objectInserted(final ObjectInsertedEvent event) {
+    this.inserted.increment();
+    this.add(event.getObject().getClass(), WorkingMemoryStatistics.entryPointOf(event.getFactHandle()), 1);
+  }
+
+  @Override
+  public void objectUpdated(final ObjectUpdatedEvent event) {
+    this.updated.increment();
+    final Class<?> oldClass = event.getOldObject().getClass();
+    final Class<?> newClass = event.getObject().getClass();
+    if (oldClass != newClass) {
+      final String entryPoint = WorkingMemoryStatistics.entryPointOf(event.getFactHandle());
+      this.add(oldClass, entryPoint, -1);
+      this.add(newClass, entryPoint, 1);
+    }
+  }
+
+  @Override
+  public void objectDeleted(final ObjectDeletedEvent event) {
+    this.deleted.increment();
+    this.add(event.getOldObject().getClass(), WorkingMemoryStatistics.entryPointOf(event.getFactHandle()), -1);
+  }
+
+  public long getFactCount() {
+    long count = 0;
+    for (final LongAdder adder : this.byEntryPoint.values()) {
+      count += adder.sum();
+    }
+    return count;
+  }
+
+  /**
+   * @return facts whose class is exactly <code>clazz</code>
+   */
+  public long getFactCount(final Class<?> clazz) {
+    final LongAdder count = this.byClass.get(clazz);
+    return count == null ? 0 : count.sum();
+  }
+
+  public long getFactCount(final String entryPoint) {
+    final LongAdder count = this.byEntryPoint.get(entryPoint);
+    return count == null ? 0 : count.sum();
+  }
+
+  /**
+   * @return fact count per class name, classes without facts left out
+   */
+  public Map<String, Long> getFactCountByClass() {
+    final Map<String, Long> counts = new TreeMap<>();
+    this.byClass.forEach((clazz, count) -> {
+      final long sum = count.sum();
+      if (sum != 0) {
+        counts.merge(clazz.getName(), sum, Long::sum);
+      }
+    });
+    return counts;
+  }
+
+  public Map<String, Long> getFactCountByEntryPoint() {
+    final Map<String, Long> counts = new TreeMap<>();
+    this.byEntryPoint.forEach((entryPoint, count) -> counts.put(entryPoint, count.sum()));
+    return counts;
+  }
+
+  public long getInsertedCount() {
+    return this.inserted.sum();
+  }
+
+  public long getDeletedCount() {
+    return this.deleted.sum();
+  }
+
+  public long getUpdatedCount() {
+    return this.updated.sum();
+  }
+
+  /**
+   * @return inserts per second since the statistics were attached
+   */
+  public double getInsertRate() {
+    return this.rate(this.inserted.sum());
+  }
+
+  public double getDeleteRate() {
+    return this.rate(this.deleted.sum());
+  }
+
+  private double rate(final long count) {
+    final long elapsed = System.nanoTime() - this.since;
+    return elapsed <= 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+  }
+
+  /**
+   * @param bytesPerFact estimated shallow size of an instance of each class
+   * @return estimated memory held by the working memory, facts and handles
+   */
+  public long getEstimatedBytes(final ToLongFunction<Class<?>> bytesPerFact) {
+    long bytes = 0;
+    for (final Map.Entry<Class<?>, LongAdder> entry : this.byClass.entrySet()) {
+      bytes += entry.getValue().sum() * (bytesPerFact.applyAsLong(entry.getKey()) + WorkingMemoryStatistics.HANDLE_OVERHEAD);
+    }
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return "WorkingMemoryStatistics[facts=" + this.getFactCount() + ", byClass=" + this.getFactCountByClass() + ", byEntryPoint=" + this.getFactCountByEntryPoint()
+        + ", inserted=" + this.getInsertedCount() + ", deleted=" + this.getDeletedCount() + "]";
+  }
+
+  /**
+   * Iterates over the facts of a session by pages of at most <code>pageSize</code>, reading the object store lazily
+   * instead of copying it. Like any access to the session, to be used on the engine thread.
+   */
+  public static Iterator<List<Object>> pages(final KieSession ksession, final ObjectFilter filter, final int pageSize) {
+    final Iterator<?> facts = (filter == null ? ksession.getObjects() : ksession.getObjects(filter)).iterator();
+    return new Iterator<List<Object>>() {
+      @Override
+      public boolean hasNext() {
+        return facts.hasNext();
+      }
+
+      @Override
+      public List<Object> next() {
+        if (!facts.hasNext()) { throw new NoSuchElementException(); }
+        final List<Object> page = new ArrayList<>(pageSize);
+        while (page.size() < pageSize && facts.hasNext()) {
+          page.add(facts.next());
+        }
+        return Collections.unmodifiableList(page);
+      }
+    };
+  }
+}
@@ -0,0 +1,63 @@
+package drools;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.ClassObjectFilter;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.FactHandle;
+
+public class WorkingMemoryStatisticsTest extends BaseModelTest {
+  private static final String DRL = "package org.drools.statistics\n rule R1 when\n $s : String( this.startsWith(\"H\") )\n then\n insert( new StringBuilder($s) );\n end\n";
+
+  private static final String GROUP_ID = "me.nbuchon";
+
+  public WorkingMemoryStatisticsTest(final RUN_TYPE testRunType) {
+    super(testRunType);
+  }
+
+  @Test
+  public void countsFollowTheSession() throws Exception {
+    final KieServices ks = KieServices.Factory.get();
+    final ReleaseId releaseId = ks.newReleaseId(WorkingMemoryStatisticsTest.GROUP_ID, "test-statistics", "1.0.0");
+    this.createAndDeployJar(ks, EventProcessingOption.CLOUD, releaseId, WorkingMemoryStatisticsTest.DRL);
+
+    final KieSession ksession = ks.newKieContainer(releaseId).newKieSession();
+    // already there when attached
+    ksession.insert("Hello");
+    final WorkingMemoryStatistics statistics = WorkingMemoryStatistics.attach(ksession);
+
+    final FactHandle world = ksession.insert("World");
+    for (int i = 0; i < 10; i++) {
+      ksession.insert("Hi " + i);
+    }
+    ksession.fireAllRules();
+    ksession.delete(world);
+
+    Assert.assertEquals(statistics.toString(), 11, statistics.getFactCount(String.class));
+    Assert.assertEquals(statistics.toString(), 11, statistics.getFactCount(StringBuilder.class));
+    Assert.assertEquals(ksession.getFactCount(), statistics.getFactCount());
+    Assert.assertEquals(ksession.getFactCount(), statistics.getFactCount("DEFAULT"));
+    Assert.assertEquals(22, statistics.getInsertedCount());
+    Assert.assertEquals(1, statistics.getDeletedCount());
+    Assert.assertEquals(22 * (16 + WorkingMemoryStatistics.HANDLE_OVERHEAD), statistics.getEstimatedBytes(clazz -> 16));
+
+    int strings = 0;
+    int pages = 0;
+    for (final Iterator<List<Object>> it = WorkingMemoryStatistics.pages(ksession, new ClassObjectFilter(String.class), 5); it.hasNext();) {
+      final List<Object> page = it.next();
+      Assert.assertTrue(page.size() <= 5);
+      strings += page.size();
+      pages++;
+    }
+    Assert.assertEquals(11, strings);
+    Assert.assertEquals(3, pages);
+
+    ksession.dispose();
+  }
+}